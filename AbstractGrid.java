@@ -0,0 +1,263 @@
+/**
+ * Base for grids of any size. Subclasses choose how cells are stored and supply the
+ * primitive reads and writes; bounds and values are checked here.
+ *
+ * Validation matches {@link GridManagement}: bad positions print an error and change
+ * nothing, and out-of-range values in an insert print a warning and are stored as 0.
+ * Successful operations print nothing, since these grids are meant for workloads far
+ * too large to narrate.
+ */
+abstract class AbstractGrid implements GridLayout {
+    static final int MAX_VALUE = 9;
+
+    protected final int rows;
+    protected final int columns;
+    private final GridChanges changes;
+    private GridRenderer renderer;
+
+    AbstractGrid(int rows, int columns) {
+        if (rows < 1 || columns < 1) {
+            throw new IllegalArgumentException("A grid needs at least one row and one column");
+        }
+        this.rows = rows;
+        this.columns = columns;
+        this.changes = new GridChanges(rows, columns);
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columns;
+    }
+
+    @Override
+    public void insertAtRow(int rowNumber, int[] values) {
+        if (!checkRow(rowNumber) || !checkLength(values, columns, "row")) {
+            return;
+        }
+        writeRow(rowNumber, inRange(values));
+        rowChanged(rowNumber);
+    }
+
+    @Override
+    public void insertAtColumn(int columnNumber, int[] values) {
+        if (!checkColumn(columnNumber) || !checkLength(values, rows, "column")) {
+            return;
+        }
+        writeColumn(columnNumber, inRange(values));
+        columnChanged(columnNumber);
+    }
+
+    @Override
+    public void clearAtRow(int rowNumber) {
+        if (checkRow(rowNumber)) {
+            clearRow(rowNumber);
+            rowChanged(rowNumber);
+        }
+    }
+
+    @Override
+    public void clearAtColumn(int columnNumber) {
+        if (checkColumn(columnNumber)) {
+            clearColumn(columnNumber);
+            columnChanged(columnNumber);
+        }
+    }
+
+    @Override
+    public void updateCell(int rowNumber, int columnNumber, int value) {
+        if (rowNumber < 0 || rowNumber >= rows || columnNumber < 0 || columnNumber >= columns) {
+            System.out.println("Error: Invalid cell position. Row must be between 0 and " + (rows - 1)
+                    + ", column between 0 and " + (columns - 1));
+            return;
+        }
+        if (value < 0 || value > MAX_VALUE) {
+            System.out.println("Error: Value must be between 0 and 9.");
+            return;
+        }
+        set(rowNumber, columnNumber, value);
+        cellChanged(rowNumber, columnNumber);
+    }
+
+    @Override
+    public GridBatch.Result applyBatch(GridBatch batch) {
+        GridBatch.Result result = batch.validate(rows, columns);
+        if (result.isApplied()) {
+            apply(batch.commands(), batch.size());
+        }
+        return result;
+    }
+
+    @Override
+    public void clear() {
+        clearCells();
+        allChanged();
+    }
+
+    @Override
+    public int getCellValue(int rowNumber, int columnNumber) {
+        if (rowNumber < 0 || rowNumber >= rows || columnNumber < 0 || columnNumber >= columns) {
+            System.out.println("Error: Invalid cell position.");
+            return -1;
+        }
+        return get(rowNumber, columnNumber);
+    }
+
+    @Override
+    public int[] getRow(int rowNumber) {
+        if (rowNumber < 0 || rowNumber >= rows) {
+            System.out.println("Error: Invalid row number.");
+            return null;
+        }
+        int[] row = new int[columns];
+        readRow(rowNumber, row);
+        return row;
+    }
+
+    @Override
+    public int[] getColumn(int columnNumber) {
+        if (columnNumber < 0 || columnNumber >= columns) {
+            System.out.println("Error: Invalid column number.");
+            return null;
+        }
+        int[] column = new int[rows];
+        readColumn(columnNumber, column);
+        return column;
+    }
+
+    @Override
+    public void copyRow(int rowNumber, int[] into) {
+        if (rowNumber < 0 || rowNumber >= rows) {
+            System.out.println("Error: Invalid row number.");
+            return;
+        }
+        readRow(rowNumber, into);
+    }
+
+    @Override
+    public GridChanges getChanges() {
+        return changes;
+    }
+
+    @Override
+    public void displayGrid() {
+        if (renderer == null) {
+            renderer = new GridRenderer(this);
+        }
+        renderer.print(System.out);
+    }
+
+    abstract int get(int row, int column);
+
+    // Position and value are already checked by the callers below.
+    abstract void set(int row, int column, int value);
+
+    // Writes values[0 .. values.length) to the start of the row; every value is in range.
+    abstract void writeRow(int row, int[] values);
+
+    // Writes every column of the row into the array.
+    abstract void readRow(int row, int[] into);
+
+    abstract void clearRow(int row);
+
+    abstract void clearCells();
+
+    // Applies a batch of commands that are all valid.
+    void apply(int[] commands, int count) {
+        for (int at = 0, end = count * GridBatch.FIELDS; at < end; at += GridBatch.FIELDS) {
+            int row = commands[at + 1];
+            int column = commands[at + 2];
+            switch (commands[at]) {
+                case GridBatch.UPDATE_CELL:
+                    set(row, column, commands[at + 3]);
+                    cellChanged(row, column);
+                    break;
+                case GridBatch.CLEAR_ROW:
+                    clearRow(row);
+                    rowChanged(row);
+                    break;
+                default:
+                    clearColumn(column);
+                    columnChanged(column);
+            }
+        }
+    }
+
+    // Record changes for the renderer, after the cells are written.
+    void rowChanged(int row) {
+        changes.markRow(row);
+    }
+
+    void columnChanged(int column) {
+        changes.markColumn(column);
+    }
+
+    void cellChanged(int row, int column) {
+        changes.markCell(row, column);
+    }
+
+    void allChanged() {
+        changes.markAll();
+    }
+
+    void writeColumn(int column, int[] values) {
+        for (int i = 0; i < values.length; i++) {
+            set(i, column, values[i]);
+        }
+    }
+
+    void readColumn(int column, int[] into) {
+        for (int i = 0; i < rows; i++) {
+            into[i] = get(i, column);
+        }
+    }
+
+    void clearColumn(int column) {
+        for (int i = 0; i < rows; i++) {
+            set(i, column, 0);
+        }
+    }
+
+    private boolean checkRow(int rowNumber) {
+        if (rowNumber < 0 || rowNumber >= rows) {
+            System.out.println("Error: Row number must be between 0 and " + (rows - 1));
+            return false;
+        }
+        return true;
+    }
+
+    private boolean checkColumn(int columnNumber) {
+        if (columnNumber < 0 || columnNumber >= columns) {
+            System.out.println("Error: Column number must be between 0 and " + (columns - 1));
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean checkLength(int[] values, int maximum, String line) {
+        if (values.length > maximum) {
+            System.out.println("Error: Too many values for " + line + ". Maximum is " + maximum);
+            return false;
+        }
+        return true;
+    }
+
+    // The values themselves when all are in range, else a copy with the bad ones zeroed.
+    private static int[] inRange(int[] values) {
+        int[] checked = values;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] < 0 || values[i] > MAX_VALUE) {
+                System.out.println("Warning: Value " + values[i] + " is out of range (0-9). Setting to 0.");
+                if (checked == values) {
+                    checked = values.clone();
+                }
+                checked[i] = 0;
+            }
+        }
+        return checked;
+    }
+}
@@ -0,0 +1,383 @@
+/**
+ * A bank account. Balance changes are guarded by the account's lock, so an account can
+ * be used from several threads at once.
+ *
+ * Balances and amounts are fixed-point cents. The double-based methods convert at
+ * the boundary; the cents-based methods do no String work and allocate nothing
+ * unless they throw. The try* methods report rejections as a {@link TransactionResult}
+ * instead of throwing, for callers where declines are routine.
+ *
+ * An Account normally holds its own state and is its own lock. A store can instead
+ * hand out lightweight views whose state lives in the store (see
+ * {@link ColumnarAccountStore}); such views override the read and write methods below
+ * and lock a monitor shared with every other view of the same account. Callers that
+ * lock an account must use {@link #lock()}, never the Account object itself.
+ */
+class Account {
+    private long accountId;
+    private volatile String accountHolder;
+    private long balanceCents;
+    private long journalSequence;
+    private volatile HolderIndex holderIndex;
+    static final long MIN_BALANCE_CENTS = 0;
+    static final long MAX_BALANCE_CENTS = 99_999_999;
+    static final long MIN_DEPOSIT_CENTS = 1;
+    static final long MAX_DEPOSIT_CENTS = 1_000_000;
+
+    public Account(long accountId, String accountHolder, double initialBalance)
+            throws InvalidAmountException, BalanceLimitException {
+        this(accountId, accountHolder, toCents(initialBalance, "Initial balance"));
+    }
+
+    private Account(long accountId, String accountHolder, long initialBalanceCents)
+            throws InvalidAmountException, BalanceLimitException {
+        TransactionResult result = checkAmount(initialBalanceCents);
+        if (result.isApplied()) {
+            result = checkBalanceLimit(initialBalanceCents);
+        }
+        if (result == TransactionResult.NEGATIVE_AMOUNT) {
+            throw new InvalidAmountException(result.message("Initial balance", accountId, 0));
+        }
+        if (!result.isApplied()) {
+            throw new BalanceLimitException(result.message("Initial balance", accountId, 0));
+        }
+
+        this.accountId = accountId;
+        this.accountHolder = accountHolder;
+        this.balanceCents = initialBalanceCents;
+    }
+
+    /**
+     * For views whose state is kept by a store rather than in this object.
+     */
+    Account(long accountId) {
+        this.accountId = accountId;
+    }
+
+    public static Account ofCents(long accountId, String accountHolder, long initialBalanceCents)
+            throws InvalidAmountException, BalanceLimitException {
+        return new Account(accountId, accountHolder, initialBalanceCents);
+    }
+
+    public long getAccountId() {
+        return accountId;
+    }
+
+    public String getAccountHolder() {
+        return readHolder();
+    }
+
+    public double getBalance() {
+        return Money.toDollars(getBalanceCents());
+    }
+
+    public long getBalanceCents() {
+        synchronized (lock()) {
+            return readBalanceCents();
+        }
+    }
+
+    /**
+     * Sequence number of the last journal record applied to this account.
+     */
+    long getJournalSequence() {
+        synchronized (lock()) {
+            return readJournalSequence();
+        }
+    }
+
+    void setJournalSequence(long journalSequence) {
+        synchronized (lock()) {
+            writeJournalSequence(journalSequence);
+        }
+    }
+
+    /**
+     * Re-applies a journaled balance change during recovery. The change was validated
+     * when it was first made, so it is applied as is; records the account has already
+     * seen are ignored.
+     */
+    void replay(long deltaCents, long sequence) {
+        synchronized (lock()) {
+            if (sequence > readJournalSequence()) {
+                writeBalanceCents(readBalanceCents() + deltaCents);
+                writeJournalSequence(sequence);
+            }
+        }
+    }
+
+    public void setAccountHolder(String accountHolder) {
+        if (accountHolder != null && !accountHolder.trim().isEmpty()) {
+            synchronized (lock()) {
+                String previous = readHolder();
+                writeHolder(accountHolder);
+                HolderIndex index = holderIndex();
+                if (index != null) {
+                    index.rename(accountId, previous, accountHolder);
+                }
+            }
+        } else {
+            throw new IllegalArgumentException("Account holder name cannot be empty");
+        }
+    }
+
+    /**
+     * Registers the index that {@link #setAccountHolder} keeps up to date.
+     */
+    void setHolderIndex(HolderIndex holderIndex) {
+        this.holderIndex = holderIndex;
+    }
+
+    /**
+     * The monitor that guards this account's balance. Every view of the same account
+     * returns the same monitor.
+     */
+    Object lock() {
+        return this;
+    }
+
+    /**
+     * Accounts whose locks are needed together are locked in ascending lock order.
+     * Accounts that share a lock have the same order.
+     */
+    long lockOrder() {
+        return accountId;
+    }
+
+    // State access, overridden by store-backed views. Balance and sequence are only
+    // read and written with the lock held.
+
+    String readHolder() {
+        return accountHolder;
+    }
+
+    void writeHolder(String accountHolder) {
+        this.accountHolder = accountHolder;
+    }
+
+    long readBalanceCents() {
+        return balanceCents;
+    }
+
+    void writeBalanceCents(long balanceCents) {
+        this.balanceCents = balanceCents;
+    }
+
+    long readJournalSequence() {
+        return journalSequence;
+    }
+
+    void writeJournalSequence(long journalSequence) {
+        this.journalSequence = journalSequence;
+    }
+
+    HolderIndex holderIndex() {
+        return holderIndex;
+    }
+
+    static long toCents(double amount, String operation) throws InvalidAmountException {
+        if (amount < 0) {
+            throw new InvalidAmountException(operation + " amount cannot be negative");
+        }
+
+        long cents = Money.toCents(amount);
+        if (cents == Money.NOT_CENTS) {
+            throw new InvalidAmountException(operation + " amount can have maximum 2 decimal places");
+        }
+        return cents;
+    }
+
+    static TransactionResult checkAmount(long amountCents) {
+        return amountCents < 0 ? TransactionResult.NEGATIVE_AMOUNT : TransactionResult.APPLIED;
+    }
+
+    static TransactionResult checkBalanceLimit(long newBalanceCents) {
+        if (newBalanceCents < MIN_BALANCE_CENTS) {
+            return TransactionResult.BALANCE_TOO_LOW;
+        }
+        if (newBalanceCents > MAX_BALANCE_CENTS) {
+            return TransactionResult.BALANCE_TOO_HIGH;
+        }
+        return TransactionResult.APPLIED;
+    }
+
+    static TransactionResult checkDepositRange(long amountCents) {
+        if (amountCents < MIN_DEPOSIT_CENTS || amountCents > MAX_DEPOSIT_CENTS) {
+            return TransactionResult.DEPOSIT_OUT_OF_RANGE;
+        }
+        return TransactionResult.APPLIED;
+    }
+
+    // Turns a rejection into the exception the throwing API has always used.
+    private void reject(TransactionResult result, String operation)
+            throws InvalidAmountException, InsufficientFundsException, BalanceLimitException {
+        String message = result.message(operation, accountId, readBalanceCents());
+        if (result == TransactionResult.INSUFFICIENT_FUNDS) {
+            throw new InsufficientFundsException(message);
+        }
+        if (result.isBalanceLimit()) {
+            throw new BalanceLimitException(message);
+        }
+        throw new InvalidAmountException(message);
+    }
+
+    // Deposit method
+    public void deposit(double amount) throws InvalidAmountException, BalanceLimitException {
+        depositCents(toCents(amount, "Deposit"));
+    }
+
+    public void depositCents(long amountCents) throws InvalidAmountException, BalanceLimitException {
+        synchronized (lock()) {
+            TransactionResult result = tryDeposit(amountCents);
+            if (result.isBalanceLimit()) {
+                throw new BalanceLimitException(result.message("Deposit", accountId, readBalanceCents()));
+            }
+            if (!result.isApplied()) {
+                throw new InvalidAmountException(result.message("Deposit", accountId, readBalanceCents()));
+            }
+        }
+    }
+
+    /**
+     * Deposits without throwing; rejections come back as a {@link TransactionResult}.
+     */
+    public TransactionResult tryDeposit(long amountCents) {
+        TransactionResult result = checkAmount(amountCents);
+        if (result.isApplied()) {
+            result = checkDepositRange(amountCents);
+        }
+        if (!result.isApplied()) {
+            return result;
+        }
+
+        synchronized (lock()) {
+            long newBalance = readBalanceCents() + amountCents;
+            result = checkBalanceLimit(newBalance);
+            if (result.isApplied()) {
+                writeBalanceCents(newBalance);
+            }
+            return result;
+        }
+    }
+
+    public void withdraw(double amount)
+            throws InvalidAmountException, InsufficientFundsException, BalanceLimitException {
+        withdrawCents(toCents(amount, "Withdrawal"));
+    }
+
+    public void withdrawCents(long amountCents)
+            throws InvalidAmountException, InsufficientFundsException, BalanceLimitException {
+        synchronized (lock()) {
+            TransactionResult result = tryWithdraw(amountCents);
+            if (!result.isApplied()) {
+                reject(result, "Withdrawal");
+            }
+        }
+    }
+
+    /**
+     * Withdraws without throwing; rejections come back as a {@link TransactionResult}.
+     */
+    public TransactionResult tryWithdraw(long amountCents) {
+        TransactionResult result = checkAmount(amountCents);
+        if (!result.isApplied()) {
+            return result;
+        }
+
+        synchronized (lock()) {
+            long balance = readBalanceCents();
+            if (amountCents > balance) {
+                return TransactionResult.INSUFFICIENT_FUNDS;
+            }
+
+            long newBalance = balance - amountCents;
+            result = checkBalanceLimit(newBalance);
+            if (result.isApplied()) {
+                writeBalanceCents(newBalance);
+            }
+            return result;
+        }
+    }
+
+    protected void transfer(double amount, Account toAccount)
+            throws InvalidAmountException, InsufficientFundsException, BalanceLimitException {
+        transferCents(toCents(amount, "Transfer"), toAccount);
+    }
+
+    /**
+     * Moves money to another account. Both accounts are locked in lock order, so two
+     * opposite transfers between the same pair cannot deadlock.
+     */
+    protected void transferCents(long amountCents, Account toAccount)
+            throws InvalidAmountException, InsufficientFundsException, BalanceLimitException {
+        if (toAccount.accountId == accountId) {
+            throw new IllegalArgumentException("Cannot transfer to the same account");
+        }
+
+        Account first = lockOrder() <= toAccount.lockOrder() ? this : toAccount;
+        Account second = first == this ? toAccount : this;
+
+        synchronized (first.lock()) {
+            synchronized (second.lock()) {
+                TransactionResult result = transferLocked(amountCents, toAccount);
+                if (!result.isApplied()) {
+                    reject(result, "Transfer");
+                }
+            }
+        }
+    }
+
+    /**
+     * Transfers without throwing; rejections come back as a {@link TransactionResult}.
+     */
+    public TransactionResult tryTransfer(long amountCents, Account toAccount) {
+        if (toAccount.accountId == accountId) {
+            return TransactionResult.SAME_ACCOUNT;
+        }
+
+        Account first = lockOrder() <= toAccount.lockOrder() ? this : toAccount;
+        Account second = first == this ? toAccount : this;
+
+        synchronized (first.lock()) {
+            synchronized (second.lock()) {
+                return transferLocked(amountCents, toAccount);
+            }
+        }
+    }
+
+    private TransactionResult transferLocked(long amountCents, Account toAccount) {
+        TransactionResult result = checkAmount(amountCents);
+        if (!result.isApplied()) {
+            return result;
+        }
+        long balance = readBalanceCents();
+        if (amountCents > balance) {
+            return TransactionResult.INSUFFICIENT_FUNDS;
+        }
+
+        long newFromBalance = balance - amountCents;
+        long newToBalance = toAccount.readBalanceCents() + amountCents;
+
+        result = checkBalanceLimit(newFromBalance);
+        if (result.isApplied()) {
+            result = checkBalanceLimit(newToBalance);
+        }
+        if (result.isApplied()) {
+            writeBalanceCents(newFromBalance);
+            toAccount.writeBalanceCents(newToBalance);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(64);
+        sb.append("ACC_ID: ");
+        for (long limit = 1_000_000_000L; limit > 1 && accountId < limit; limit /= 10) {
+            sb.append('0');
+        }
+        sb.append(accountId).append("\nACC_HOLDER: ").append(getAccountHolder()).append("\nACC_BALANCE: ");
+        Money.appendTo(sb, getBalanceCents());
+        return sb.append('$').toString();
+    }
+}
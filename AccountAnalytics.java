@@ -0,0 +1,279 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Bulk reports over every account, computed in one parallel pass: total liabilities,
+ * a balance histogram, the largest balances and the accounts close to
+ * {@link Account#MAX_BALANCE_CENTS}.
+ *
+ * The accounts are split by store position into partitions that a fork-join pool
+ * scans independently; partial results are merged as the tasks join. Balances are
+ * read through a {@link BalanceCapture}, so the report describes a single instant even
+ * though transactions keep running during the scan.
+ */
+class AccountAnalytics {
+    private static final int PARTITION_SIZE = 1 << 15;
+    private static final int MAX_NEAR_LIMIT_LISTED = 10_000;
+
+    private static final Comparator<Entry> BY_BALANCE =
+            Comparator.comparingLong((Entry entry) -> entry.balanceCents).thenComparingLong(entry -> -entry.accountId);
+
+    private final ForkJoinPool pool;
+    private final long[] bucketBoundsCents;
+    private final int topCount;
+    private final long nearLimitCents;
+
+    /**
+     * @param bucketBoundsCents  ascending upper bounds of the histogram buckets; the
+     *                           last bucket holds everything at or above the last bound
+     * @param topCount           how many of the largest balances to report
+     * @param nearLimitMarginCents  accounts within this margin of the maximum balance
+     *                           are reported as near the limit
+     */
+    public AccountAnalytics(ForkJoinPool pool, long[] bucketBoundsCents, int topCount, long nearLimitMarginCents) {
+        for (int i = 1; i < bucketBoundsCents.length; i++) {
+            if (bucketBoundsCents[i] <= bucketBoundsCents[i - 1]) {
+                throw new IllegalArgumentException("Bucket bounds must be ascending");
+            }
+        }
+        if (topCount < 0 || nearLimitMarginCents < 0) {
+            throw new IllegalArgumentException("Top count and margin cannot be negative");
+        }
+        this.pool = pool;
+        this.bucketBoundsCents = bucketBoundsCents.clone();
+        this.topCount = topCount;
+        this.nearLimitCents = Account.MAX_BALANCE_CENTS - nearLimitMarginCents;
+    }
+
+    /**
+     * Scans the accounts at positions [0, end) of the store.
+     */
+    Report run(AccountStore accounts, BalanceCapture capture, int end) {
+        long start = System.nanoTime();
+        Partial result = pool.invoke(new Scan(accounts, capture, 0, end));
+
+        List<Entry> top = new ArrayList<>(result.top);
+        top.sort(BY_BALANCE.reversed());
+        result.nearLimit.sort(BY_BALANCE.reversed());
+        return new Report(result.count, result.totalCents, bucketBoundsCents.clone(), result.buckets,
+                Collections.unmodifiableList(top), result.nearLimitCount,
+                Collections.unmodifiableList(result.nearLimit), System.nanoTime() - start);
+    }
+
+    private class Scan extends RecursiveTask<Partial> {
+        private static final long serialVersionUID = 1L;
+
+        private final AccountStore accounts;
+        private final BalanceCapture capture;
+        private final int from;
+        private final int to;
+
+        Scan(AccountStore accounts, BalanceCapture capture, int from, int to) {
+            this.accounts = accounts;
+            this.capture = capture;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Partial compute() {
+            if (to - from > PARTITION_SIZE) {
+                int middle = (from + to) >>> 1;
+                Scan left = new Scan(accounts, capture, from, middle);
+                left.fork();
+                Partial right = new Scan(accounts, capture, middle, to).compute();
+                return left.join().merge(right);
+            }
+
+            Partial partial = new Partial();
+            for (int position = from; position < to; position++) {
+                Account account = accounts.accountAt(position);
+                partial.add(account.getAccountId(), capture.balanceOf(account));
+            }
+            return partial;
+        }
+    }
+
+    // Results for one range of positions.
+    private class Partial {
+        long count;
+        long totalCents;
+        final long[] buckets = new long[bucketBoundsCents.length + 1];
+        final PriorityQueue<Entry> top = new PriorityQueue<>(Math.min(topCount, 1024) + 1, BY_BALANCE);
+        long nearLimitCount;
+        final List<Entry> nearLimit = new ArrayList<>();
+
+        void add(long accountId, long balanceCents) {
+            count++;
+            totalCents += balanceCents;
+
+            int bucket = Arrays.binarySearch(bucketBoundsCents, balanceCents);
+            buckets[bucket >= 0 ? bucket + 1 : -bucket - 1]++;
+
+            if (top.size() < topCount) {
+                top.add(new Entry(accountId, balanceCents));
+            } else if (topCount > 0 && balanceCents > top.peek().balanceCents) {
+                top.poll();
+                top.add(new Entry(accountId, balanceCents));
+            }
+
+            if (balanceCents >= nearLimitCents) {
+                nearLimitCount++;
+                if (nearLimit.size() < MAX_NEAR_LIMIT_LISTED) {
+                    nearLimit.add(new Entry(accountId, balanceCents));
+                }
+            }
+        }
+
+        Partial merge(Partial other) {
+            count += other.count;
+            totalCents += other.totalCents;
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] += other.buckets[i];
+            }
+            for (Entry entry : other.top) {
+                if (top.size() < topCount) {
+                    top.add(entry);
+                } else if (BY_BALANCE.compare(entry, top.peek()) > 0) {
+                    top.poll();
+                    top.add(entry);
+                }
+            }
+            nearLimitCount += other.nearLimitCount;
+            for (Entry entry : other.nearLimit) {
+                if (nearLimit.size() >= MAX_NEAR_LIMIT_LISTED) {
+                    break;
+                }
+                nearLimit.add(entry);
+            }
+            return this;
+        }
+    }
+
+    /**
+     * An account and its balance at the time of the report.
+     */
+    static final class Entry {
+        final long accountId;
+        final long balanceCents;
+
+        Entry(long accountId, long balanceCents) {
+            this.accountId = accountId;
+            this.balanceCents = balanceCents;
+        }
+
+        public long getAccountId() {
+            return accountId;
+        }
+
+        public long getBalanceCents() {
+            return balanceCents;
+        }
+
+        @Override
+        public String toString() {
+            return accountId + ": $" + Money.format(balanceCents);
+        }
+    }
+
+    /**
+     * The result of one analytics pass.
+     */
+    static final class Report {
+        private final long accountCount;
+        private final long totalBalanceCents;
+        private final long[] bucketBoundsCents;
+        private final long[] bucketCounts;
+        private final List<Entry> topBalances;
+        private final long nearLimitCount;
+        private final List<Entry> nearLimit;
+        private final long elapsedNanos;
+
+        Report(long accountCount, long totalBalanceCents, long[] bucketBoundsCents, long[] bucketCounts,
+                List<Entry> topBalances, long nearLimitCount, List<Entry> nearLimit, long elapsedNanos) {
+            this.accountCount = accountCount;
+            this.totalBalanceCents = totalBalanceCents;
+            this.bucketBoundsCents = bucketBoundsCents;
+            this.bucketCounts = bucketCounts;
+            this.topBalances = topBalances;
+            this.nearLimitCount = nearLimitCount;
+            this.nearLimit = nearLimit;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getAccountCount() {
+            return accountCount;
+        }
+
+        /**
+         * Total liabilities: the sum of every balance.
+         */
+        public long getTotalBalanceCents() {
+            return totalBalanceCents;
+        }
+
+        /**
+         * Bucket i counts balances in [bound i-1, bound i); the last bucket has no upper bound.
+         */
+        public long[] getBucketCounts() {
+            return bucketCounts.clone();
+        }
+
+        public long[] getBucketBoundsCents() {
+            return bucketBoundsCents.clone();
+        }
+
+        /**
+         * The largest balances, largest first.
+         */
+        public List<Entry> getTopBalances() {
+            return topBalances;
+        }
+
+        public long getNearLimitCount() {
+            return nearLimitCount;
+        }
+
+        /**
+         * Accounts near the maximum balance, largest first; at most 10,000 are listed.
+         */
+        public List<Entry> getNearLimit() {
+            return nearLimit;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Accounts: ").append(accountCount).append(", total balance: $");
+            Money.appendTo(sb, totalBalanceCents);
+            sb.append('\n').append("Balance distribution:");
+            for (int i = 0; i < bucketCounts.length; i++) {
+                sb.append("\n  ");
+                if (bucketBoundsCents.length == 0) {
+                    sb.append("all balances");
+                } else if (i == 0) {
+                    sb.append("below $").append(Money.format(bucketBoundsCents[0]));
+                } else if (i == bucketBoundsCents.length) {
+                    sb.append("$").append(Money.format(bucketBoundsCents[i - 1])).append(" and up");
+                } else {
+                    sb.append("$").append(Money.format(bucketBoundsCents[i - 1]))
+                            .append(" to $").append(Money.format(bucketBoundsCents[i]));
+                }
+                sb.append(": ").append(bucketCounts[i]);
+            }
+            sb.append('\n').append("Top balances: ").append(topBalances);
+            sb.append('\n').append("Near the balance limit: ").append(nearLimitCount);
+            return sb.toString();
+        }
+    }
+}
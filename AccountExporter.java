@@ -0,0 +1,153 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Streams accounts as CSV to a channel.
+ *
+ * <pre>
+ * accountId,holder,balance
+ * 111,Sitha,403.34
+ * </pre>
+ *
+ * Rows are encoded straight into one reused buffer: IDs and cents are written digit by
+ * digit and holder names are UTF-8 encoded by hand, so exporting allocates nothing per
+ * account. Holder names containing a comma, quote or line break are quoted with
+ * doubled quotes. Accounts are read one at a time while transactions keep running, so
+ * each row's holder and balance are a consistent view of its account but the export as
+ * a whole is not a point-in-time snapshot. The filter is checked before the row is
+ * read, so a row can reflect a change made just after its account matched.
+ */
+class AccountExporter {
+    static final String HEADER = "accountId,holder,balance\n";
+
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+    // Longest row apart from the holder: 20-digit ID, 2 commas, 22-character balance, newline.
+    private static final int MAX_FIXED_ROW_SIZE = 48;
+
+    private final ByteBuffer buffer;
+    private final byte[] digits = new byte[20];
+
+    public AccountExporter() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    public AccountExporter(int bufferSize) {
+        buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, 256));
+    }
+
+    /**
+     * Writes the header and every account the filter accepts. Returns the number of
+     * accounts written.
+     */
+    public long export(Iterable<Account> accounts, AccountFilter filter, WritableByteChannel out)
+            throws IOException {
+        buffer.clear();
+        for (int i = 0; i < HEADER.length(); i++) {
+            buffer.put((byte) HEADER.charAt(i));
+        }
+
+        long count = 0;
+        for (Account account : accounts) {
+            if (!filter.matches(account)) {
+                continue;
+            }
+            if (buffer.remaining() < MAX_FIXED_ROW_SIZE * 2) {
+                drain(out);
+            }
+            // Holder and balance are read under one lock so a concurrent rename or
+            // transaction cannot land between them.
+            String holder;
+            long balanceCents;
+            synchronized (account.lock()) {
+                holder = account.readHolder();
+                balanceCents = account.readBalanceCents();
+            }
+            putLong(account.getAccountId());
+            buffer.put((byte) ',');
+            putHolder(holder, out);
+            buffer.put((byte) ',');
+            putCents(balanceCents);
+            buffer.put((byte) '\n');
+            count++;
+        }
+        drain(out);
+        return count;
+    }
+
+    private void drain(WritableByteChannel out) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void putHolder(String holder, WritableByteChannel out) throws IOException {
+        boolean quoted = false;
+        for (int i = 0; i < holder.length(); i++) {
+            char c = holder.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                quoted = true;
+                break;
+            }
+        }
+        if (quoted) {
+            buffer.put((byte) '"');
+        }
+
+        for (int i = 0; i < holder.length(); i++) {
+            // Names have no length limit, so keep room for this character and the rest of the row.
+            if (buffer.remaining() < MAX_FIXED_ROW_SIZE + 8) {
+                drain(out);
+            }
+            char c = holder.charAt(i);
+            if (c < 0x80) {
+                if (c == '"') {
+                    buffer.put((byte) '"');
+                }
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < holder.length()
+                    && Character.isLowSurrogate(holder.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, holder.charAt(++i));
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+
+        if (quoted) {
+            buffer.put((byte) '"');
+        }
+    }
+
+    private void putCents(long cents) {
+        putLong(cents / 100);
+        long fraction = cents % 100;
+        buffer.put((byte) '.');
+        buffer.put((byte) ('0' + fraction / 10));
+        buffer.put((byte) ('0' + fraction % 10));
+    }
+
+    // Writes a non-negative number; account IDs and balances are never negative.
+    private void putLong(long value) {
+        int length = 0;
+        do {
+            digits[length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        while (length > 0) {
+            buffer.put(digits[--length]);
+        }
+    }
+}
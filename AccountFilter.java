@@ -0,0 +1,46 @@
+/**
+ * Immutable filter for account listings and exports. Each with* method returns a new
+ * filter; {@link #ALL} matches every account.
+ */
+final class AccountFilter {
+    static final AccountFilter ALL = new AccountFilter(Long.MIN_VALUE, Long.MAX_VALUE, null);
+
+    private final long minBalanceCents;
+    private final long maxBalanceCents;
+    private final String holderPrefix;
+
+    private AccountFilter(long minBalanceCents, long maxBalanceCents, String holderPrefix) {
+        this.minBalanceCents = minBalanceCents;
+        this.maxBalanceCents = maxBalanceCents;
+        this.holderPrefix = holderPrefix;
+    }
+
+    /**
+     * Keeps accounts whose balance is between the two values, inclusive.
+     */
+    AccountFilter withBalanceBetween(long minBalanceCents, long maxBalanceCents) {
+        return new AccountFilter(minBalanceCents, maxBalanceCents, holderPrefix);
+    }
+
+    /**
+     * Keeps accounts whose holder name starts with the prefix, ignoring case.
+     */
+    AccountFilter withHolderPrefix(String holderPrefix) {
+        return new AccountFilter(minBalanceCents, maxBalanceCents,
+                holderPrefix == null || holderPrefix.isEmpty() ? null : holderPrefix);
+    }
+
+    boolean matches(Account account) {
+        if (holderPrefix != null) {
+            String holder = account.getAccountHolder();
+            if (!holder.regionMatches(true, 0, holderPrefix, 0, holderPrefix.length())) {
+                return false;
+            }
+        }
+        if (minBalanceCents != Long.MIN_VALUE || maxBalanceCents != Long.MAX_VALUE) {
+            long balanceCents = account.getBalanceCents();
+            return balanceCents >= minBalanceCents && balanceCents <= maxBalanceCents;
+        }
+        return true;
+    }
+}
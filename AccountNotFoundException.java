@@ -0,0 +1,7 @@
+class AccountNotFoundException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public AccountNotFoundException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,30 @@
+import java.util.List;
+
+/**
+ * One page of a cursor-based account listing. Pass {@link #getNextCursor()} back to get
+ * the following page; it is {@link #END} when there are no more accounts.
+ */
+final class AccountPage {
+    static final long FIRST = 0;
+    static final long END = -1;
+
+    private final List<Account> accounts;
+    private final long nextCursor;
+
+    AccountPage(List<Account> accounts, long nextCursor) {
+        this.accounts = accounts;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Account> getAccounts() {
+        return accounts;
+    }
+
+    public long getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasMore() {
+        return nextCursor != END;
+    }
+}
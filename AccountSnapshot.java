@@ -0,0 +1,154 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Compact binary snapshot of every account, written and read through memory-mapped
+ * regions of the file.
+ *
+ * The header records where the journal stood when the snapshot started. Accounts are
+ * read one at a time while transactions keep running, so the snapshot is fuzzy: each
+ * account is stored with the sequence number of the last journal record applied to it,
+ * and recovery skips any journal record an account has already seen.
+ *
+ * <pre>
+ * header:  int magic | int version | long journalPosition | long journalSequence | long accountCount
+ * account: long accountId | long balanceCents | long journalSequence | short holderLength | holder (UTF-8)
+ * </pre>
+ */
+final class AccountSnapshot {
+    private static final int MAGIC = 0x42414E4B;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8;
+    private static final int ACCOUNT_FIXED_SIZE = 8 + 8 + 8 + 2;
+    private static final long MAP_CHUNK_SIZE = 64L << 20;
+
+    /**
+     * Receives the accounts of a snapshot being loaded.
+     */
+    interface Loader {
+        void account(long accountId, String accountHolder, long balanceCents, long journalSequence)
+                throws Exception;
+    }
+
+    final long journalPosition;
+    final long journalSequence;
+    final long accountCount;
+
+    private AccountSnapshot(long journalPosition, long journalSequence, long accountCount) {
+        this.journalPosition = journalPosition;
+        this.journalSequence = journalSequence;
+        this.accountCount = accountCount;
+    }
+
+    /**
+     * Writes every account in the store to a temporary file and atomically moves it over
+     * {@code path} once it is complete. {@code beforePublish} runs after the data is
+     * forced to disk and before the move; the bank uses it to make the journal durable
+     * up to {@code journalPosition}.
+     */
+    static AccountSnapshot write(Path path, AccountStore accounts, long journalPosition, long journalSequence,
+            IoAction beforePublish) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        long count = 0;
+        long offset = HEADER_SIZE;
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_WRITE, offset, MAP_CHUNK_SIZE);
+
+            for (Account account : accounts) {
+                long balanceCents;
+                long sequence;
+                synchronized (account.lock()) {
+                    balanceCents = account.getBalanceCents();
+                    sequence = account.getJournalSequence();
+                }
+                byte[] holder = account.getAccountHolder().getBytes(StandardCharsets.UTF_8);
+
+                int size = ACCOUNT_FIXED_SIZE + holder.length;
+                if (region.remaining() < size) {
+                    region.force();
+                    region = channel.map(FileChannel.MapMode.READ_WRITE, offset, Math.max(MAP_CHUNK_SIZE, size));
+                }
+                region.putLong(account.getAccountId()).putLong(balanceCents).putLong(sequence)
+                        .putShort((short) holder.length).put(holder);
+                offset += size;
+                count++;
+            }
+            region.force();
+
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(journalPosition).putLong(journalSequence).putLong(count);
+            header.force();
+            channel.truncate(offset);
+        }
+
+        beforePublish.run();
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new AccountSnapshot(journalPosition, journalSequence, count);
+    }
+
+    /**
+     * Loads the snapshot at {@code path}, or returns null if there is none.
+     */
+    static AccountSnapshot load(Path path, Loader loader) throws IOException {
+        if (!Files.exists(path)) {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException("Snapshot " + path + " is truncated");
+            }
+
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Snapshot " + path + " has an unknown format");
+            }
+            AccountSnapshot snapshot = new AccountSnapshot(header.getLong(), header.getLong(), header.getLong());
+
+            long offset = HEADER_SIZE;
+            MappedByteBuffer region = null;
+            for (long i = 0; i < snapshot.accountCount; i++) {
+                if (region == null || region.remaining() < ACCOUNT_FIXED_SIZE
+                        || region.remaining() < ACCOUNT_FIXED_SIZE + (region.getShort(region.position() + 24) & 0xFFFF)) {
+                    if (offset >= size) {
+                        throw new IOException("Snapshot " + path + " is truncated");
+                    }
+                    region = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(MAP_CHUNK_SIZE, size - offset));
+                }
+
+                long accountId = region.getLong();
+                long balanceCents = region.getLong();
+                long sequence = region.getLong();
+                byte[] holder = new byte[region.getShort() & 0xFFFF];
+                region.get(holder);
+                offset += ACCOUNT_FIXED_SIZE + holder.length;
+
+                try {
+                    loader.account(accountId, new String(holder, StandardCharsets.UTF_8), balanceCents, sequence);
+                } catch (IOException | RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException("Snapshot account " + accountId + " could not be loaded: "
+                            + e.getMessage(), e);
+                }
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * An I/O step run while a snapshot is being published.
+     */
+    interface IoAction {
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,56 @@
+import java.util.List;
+
+/**
+ * Storage for the bank's accounts. Iteration follows insertion order.
+ * Implementations are safe to use from several threads at once.
+ */
+interface AccountStore extends Iterable<Account> {
+    /**
+     * Adds the account. Returns false if an account with the same ID already exists.
+     */
+    boolean add(Account account);
+
+    /**
+     * Returns the account with the given ID, or null if there is none.
+     */
+    Account get(long accountId);
+
+    /**
+     * Adds the accounts in order, skipping any whose ID already exists. Returns how
+     * many were added. Stores that can take the whole batch under one lock do so.
+     */
+    default int addAll(List<Account> batch) {
+        int added = 0;
+        for (Account account : batch) {
+            if (add(account)) {
+                added++;
+            }
+        }
+        return added;
+    }
+
+    int size();
+
+    /**
+     * Returns the account at the given insertion-order position, or null if the
+     * position is past the end. Positions never change once assigned, so they can be
+     * used as listing cursors.
+     */
+    Account accountAt(int position);
+
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Sum of every balance. Accounts are read one at a time, so the total is not a
+     * point-in-time figure while transfers are running.
+     */
+    default long totalBalanceCents() {
+        long total = 0;
+        for (Account account : this) {
+            total += account.getBalanceCents();
+        }
+        return total;
+    }
+}
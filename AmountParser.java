@@ -0,0 +1,216 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Single-pass parser for dollar amounts such as "100", "100.5", "$1,234.56".
+ *
+ * The input may have surrounding whitespace. Digits may be grouped with commas in
+ * threes. At most two decimals are allowed. The result is a number of cents; bad input
+ * returns {@link #INVALID} or {@link #EMPTY} instead of throwing, and nothing is
+ * allocated either way.
+ *
+ * Apart from comma grouping, which is new, the parser accepts exactly what the old
+ * regex-based parseAmount accepted. That parser deleted every '$' before checking the
+ * rest, so a '$' is ignored wherever it appears: "$5", "5$", "1$00" and "$$5" all
+ * parse. And it turned any run of digits into a double, so an amount too large for a
+ * long parses as {@link #OVERSIZED} rather than failing. That is above every deposit
+ * and balance limit, so the usual range checks reject it with the same errors as any
+ * other amount that is too large.
+ */
+final class AmountParser {
+    static final long INVALID = -1;
+    static final long EMPTY = -2;
+    static final long OVERSIZED = Long.MAX_VALUE;
+
+    private static final long MAX_DOLLARS = Long.MAX_VALUE / 100;
+
+    private AmountParser() {
+    }
+
+    static long parse(CharSequence text) {
+        return text == null ? EMPTY : parse(text, 0, text.length());
+    }
+
+    static long parse(CharSequence text, int from, int to) {
+        // Whitespace next to a '$' at either end is trimmed along with the '$'.
+        int start = from;
+        while (from < to && isSpaceOrSign(text.charAt(from))) {
+            from++;
+        }
+        if (from == to) {
+            for (int i = start; i < to; i++) {
+                if (text.charAt(i) == '$') {
+                    return INVALID;
+                }
+            }
+            return EMPTY;
+        }
+        while (isSpaceOrSign(text.charAt(to - 1))) {
+            to--;
+        }
+
+        long dollars = 0;
+        int digits = 0;
+        int groupDigits = 0;
+        boolean grouped = false;
+        boolean oversized = false;
+        int i = from;
+        for (; i < to; i++) {
+            char c = text.charAt(i);
+            if (isDigit(c)) {
+                if (fits(dollars, c)) {
+                    dollars = dollars * 10 + (c - '0');
+                } else {
+                    oversized = true;
+                }
+                digits++;
+                if (++groupDigits > 3 && grouped) {
+                    return INVALID;
+                }
+            } else if (c == ',') {
+                if (!commaFits(digits, groupDigits, grouped)) {
+                    return INVALID;
+                }
+                grouped = true;
+                groupDigits = 0;
+            } else if (c != '$') {
+                break;
+            }
+        }
+        if (digits == 0 || (grouped && groupDigits != 3)) {
+            return INVALID;
+        }
+
+        long cents = 0;
+        if (i < to) {
+            if (text.charAt(i) != '.') {
+                return INVALID;
+            }
+            int decimals = 0;
+            for (i++; i < to; i++) {
+                char c = text.charAt(i);
+                if (isDigit(c)) {
+                    if (++decimals > 2) {
+                        return INVALID;
+                    }
+                    cents = cents * 10 + (c - '0');
+                } else if (c != '$') {
+                    return INVALID;
+                }
+            }
+            if (decimals == 0) {
+                return INVALID;
+            }
+            if (decimals == 1) {
+                cents *= 10;
+            }
+        }
+        return toCents(dollars, cents, oversized);
+    }
+
+    /**
+     * Parses the bytes in [from, to) of the buffer without moving its position. The
+     * same steps as the CharSequence form, in a loop of its own so that each form reads
+     * its own type directly and the JIT profiles them apart.
+     */
+    static long parse(ByteBuffer buffer, int from, int to) {
+        int start = from;
+        while (from < to && isSpaceOrSign(buffer.get(from) & 0xFF)) {
+            from++;
+        }
+        if (from == to) {
+            for (int i = start; i < to; i++) {
+                if (buffer.get(i) == '$') {
+                    return INVALID;
+                }
+            }
+            return EMPTY;
+        }
+        while (isSpaceOrSign(buffer.get(to - 1) & 0xFF)) {
+            to--;
+        }
+
+        long dollars = 0;
+        int digits = 0;
+        int groupDigits = 0;
+        boolean grouped = false;
+        boolean oversized = false;
+        int i = from;
+        for (; i < to; i++) {
+            int c = buffer.get(i) & 0xFF;
+            if (isDigit(c)) {
+                if (fits(dollars, c)) {
+                    dollars = dollars * 10 + (c - '0');
+                } else {
+                    oversized = true;
+                }
+                digits++;
+                if (++groupDigits > 3 && grouped) {
+                    return INVALID;
+                }
+            } else if (c == ',') {
+                if (!commaFits(digits, groupDigits, grouped)) {
+                    return INVALID;
+                }
+                grouped = true;
+                groupDigits = 0;
+            } else if (c != '$') {
+                break;
+            }
+        }
+        if (digits == 0 || (grouped && groupDigits != 3)) {
+            return INVALID;
+        }
+
+        long cents = 0;
+        if (i < to) {
+            if (buffer.get(i) != '.') {
+                return INVALID;
+            }
+            int decimals = 0;
+            for (i++; i < to; i++) {
+                int c = buffer.get(i) & 0xFF;
+                if (isDigit(c)) {
+                    if (++decimals > 2) {
+                        return INVALID;
+                    }
+                    cents = cents * 10 + (c - '0');
+                } else if (c != '$') {
+                    return INVALID;
+                }
+            }
+            if (decimals == 0) {
+                return INVALID;
+            }
+            if (decimals == 1) {
+                cents *= 10;
+            }
+        }
+        return toCents(dollars, cents, oversized);
+    }
+
+    // Whether one more digit keeps the dollars within range.
+    private static boolean fits(long dollars, int c) {
+        return dollars <= (MAX_DOLLARS - (c - '0')) / 10;
+    }
+
+    // A comma must follow one to three digits, or exactly three after an earlier comma.
+    private static boolean commaFits(int digits, int groupDigits, boolean grouped) {
+        return digits > 0 && (grouped ? groupDigits == 3 : groupDigits <= 3);
+    }
+
+    private static long toCents(long dollars, long cents, boolean oversized) {
+        if (oversized || dollars > (OVERSIZED - 1 - cents) / 100) {
+            return OVERSIZED;
+        }
+        return dollars * 100 + cents;
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    // Whitespace as String.trim() sees it, which is what the old parser trimmed, or '$'.
+    private static boolean isSpaceOrSign(int c) {
+        return c <= ' ' || c == '$';
+    }
+}
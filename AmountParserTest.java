@@ -0,0 +1,114 @@
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Differential fuzz test for {@link AmountParser}. Random strings of digits, '.', ',',
+ * '$' and whitespace go through both the parser and a copy of the regex-based
+ * parseAmount it replaced, which must accept and reject the same inputs and agree on
+ * the amount. The one intended difference is comma grouping: the old parser rejected
+ * every comma, so a string with commas is expected to parse exactly when it is grouped
+ * in threes. Every string is also parsed from a byte buffer, which must give the same
+ * result as the CharSequence form.
+ *
+ * Usage: java AmountParserTest [cases] [seed]
+ */
+public class AmountParserTest {
+    private static final Pattern OLD_FORMAT = Pattern.compile("^\\d+(\\.\\d{1,2})?$");
+    private static final Pattern GROUPED_FORMAT = Pattern.compile("^\\d{1,3}(,\\d{3})+(\\.\\d{1,2})?$");
+    private static final String ALPHABET = "0123456789012345678901234567890123456789..,,$$ \t";
+    private static final BigDecimal MAX_CENTS = BigDecimal.valueOf(AmountParser.OVERSIZED);
+    private static final int SHOWN_MISMATCHES = 10;
+
+    private static int mismatchCount;
+
+    public static void main(String[] args) {
+        int cases = args.length > 0 ? Integer.parseInt(args[0]) : 3_000_000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 7;
+
+        System.out.println("1. Examples");
+        String[] examples = { "100", "100.5", "100.50", " $1,234.56 ", "$ 5", "5$", "1$00", "$$5", "$",
+                "", "   ", "1.", ".5", "1.234", "12,34", "1,234,567", "1234,567", "1 000", "-5",
+                "99999999999999999999", "92233720368547758.07", "92233720368547758.06", "\u0661\u0662" };
+        int mismatches = 0;
+        for (String example : examples) {
+            long parsed = AmountParser.parse(example);
+            System.out.println("   \"" + example + "\" -> " + describe(parsed));
+            mismatches += compare(example, parsed);
+        }
+
+        System.out.println("2. " + cases + " random strings, seed " + seed);
+        Random random = new Random(seed);
+        StringBuilder text = new StringBuilder(24);
+        long accepted = 0;
+        for (int n = 0; n < cases; n++) {
+            text.setLength(0);
+            int length = random.nextInt(n % 100 == 0 ? 24 : 10);
+            for (int i = 0; i < length; i++) {
+                text.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            }
+            String input = text.toString();
+            long parsed = AmountParser.parse(input);
+            if (parsed >= 0) {
+                accepted++;
+            }
+            mismatches += compare(input, parsed);
+        }
+        System.out.println("   " + accepted + " accepted, " + (cases - accepted) + " rejected");
+
+        if (mismatches > 0) {
+            System.out.println("FAILED: " + mismatches + " mismatch(es)");
+            System.exit(1);
+        }
+        System.out.println("All checks passed.");
+    }
+
+    private static int compare(String input, long parsed) {
+        long expected = oldParse(input);
+        ByteBuffer bytes = ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8));
+        long fromBytes = AmountParser.parse(bytes, 0, bytes.limit());
+        // Non-ASCII input reads differently as bytes; both forms must still reject it.
+        boolean ascii = bytes.limit() == input.length();
+        boolean bytesAgree = ascii ? fromBytes == parsed : fromBytes < 0 && parsed < 0;
+        if (parsed == expected && bytesAgree) {
+            return 0;
+        }
+        if (++mismatchCount <= SHOWN_MISMATCHES) {
+            System.out.println("   MISMATCH \"" + input + "\": old " + describe(expected) + ", new "
+                    + describe(parsed) + ", from bytes " + describe(fromBytes));
+        }
+        return 1;
+    }
+
+    // The regex-based parseAmount that AmountParser replaced, returning cents instead of a
+    // double so large amounts compare exactly, and accepting comma grouping.
+    private static long oldParse(String amountStr) {
+        if (amountStr == null || amountStr.trim().isEmpty()) {
+            return AmountParser.EMPTY;
+        }
+        amountStr = amountStr.replace("$", "").trim();
+        if (!OLD_FORMAT.matcher(amountStr).matches()) {
+            if (!GROUPED_FORMAT.matcher(amountStr).matches()) {
+                return AmountParser.INVALID;
+            }
+            amountStr = amountStr.replace(",", "");
+        }
+        BigDecimal cents = new BigDecimal(amountStr).movePointRight(2);
+        return cents.compareTo(MAX_CENTS) >= 0 ? AmountParser.OVERSIZED : cents.longValueExact();
+    }
+
+    private static String describe(long cents) {
+        if (cents == AmountParser.INVALID) {
+            return "INVALID";
+        }
+        if (cents == AmountParser.EMPTY) {
+            return "EMPTY";
+        }
+        if (cents == AmountParser.OVERSIZED) {
+            return "OVERSIZED";
+        }
+        return cents + " cents";
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * A point-in-time view of every balance, taken while transactions keep running.
+ *
+ * While a capture is active, each transaction checks it with the accounts it touches
+ * locked. If it sees the capture, it saves each account's balance before changing it,
+ * unless a balance was already saved for that account. A transaction either saw the
+ * capture for all of its accounts or for none, so it falls wholly after or wholly
+ * before the capture point. A reader that locks an account and prefers the saved
+ * balance over the live one therefore sees every account as of the same instant.
+ *
+ * Saved balances go into lock-striped primitive maps; balances never exceed
+ * {@link Account#MAX_BALANCE_CENTS}, so they fit the maps' int values.
+ */
+final class BalanceCapture {
+    private static final int STRIPES = 64;
+
+    private final LongHashIndex[] saved = new LongHashIndex[STRIPES];
+    private volatile boolean anySaved;
+
+    BalanceCapture() {
+        for (int i = 0; i < STRIPES; i++) {
+            saved[i] = new LongHashIndex();
+        }
+    }
+
+    /**
+     * Saves the account's balance unless it already has one saved. The caller holds
+     * the account's lock and has not changed the balance yet.
+     */
+    void preserve(Account account) {
+        long accountId = account.getAccountId();
+        LongHashIndex stripe = saved[stripe(accountId)];
+        synchronized (stripe) {
+            stripe.putIfAbsent(accountId, (int) account.readBalanceCents());
+        }
+        if (!anySaved) {
+            anySaved = true;
+        }
+    }
+
+    /**
+     * The account's balance at the capture point.
+     */
+    long balanceOf(Account account) {
+        long accountId = account.getAccountId();
+        synchronized (account.lock()) {
+            if (anySaved) {
+                LongHashIndex stripe = saved[stripe(accountId)];
+                synchronized (stripe) {
+                    int balance = stripe.get(accountId);
+                    if (balance != LongHashIndex.MISSING) {
+                        return balance;
+                    }
+                }
+            }
+            return account.readBalanceCents();
+        }
+    }
+
+    private static int stripe(long accountId) {
+        return (int) (accountId ^ (accountId >>> 32)) & (STRIPES - 1);
+    }
+}
@@ -0,0 +1,7 @@
+class BalanceLimitException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public BalanceLimitException(String message) {
+        super(message);
+    }
+}
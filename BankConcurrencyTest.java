@@ -0,0 +1,196 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stress test for concurrent account operations. Many threads move money between
+ * random accounts, directly, through a {@link TransactionEngine} and through a
+ * {@link ShardedTransactionEngine}, and the total across all accounts must be the same
+ * afterwards. Opposite transfers between one pair of accounts check that transfers
+ * cannot deadlock.
+ *
+ * Usage: java BankConcurrencyTest [transfers] [threads]
+ */
+public class BankConcurrencyTest {
+    private static final int ACCOUNTS = 1000;
+    private static final long INITIAL_BALANCE_CENTS = 50_000;
+    private static final long DEADLOCK_TIMEOUT_SECONDS = 60;
+
+    public static void main(String[] args) throws Exception {
+        int transfers = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1])
+                : Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+        System.out.println("1. Random transfers, hash store");
+        randomTransfers(new HashAccountStore(), transfers, threads);
+
+        System.out.println("2. Random transfers, columnar store");
+        randomTransfers(new ColumnarAccountStore(), transfers, threads);
+
+        System.out.println("3. Transfers through the transaction engine");
+        engineTransfers(transfers / 10, threads);
+
+        System.out.println("4. Opposite transfers between one pair of accounts");
+        oppositeTransfers(transfers / 10, threads);
+
+        System.out.println("5. Transfers through the sharded engine");
+        shardedTransfers(transfers / 4, threads);
+
+        TestChecks.finish();
+    }
+
+    private static void randomTransfers(AccountStore store, int transfers, int threads) throws Exception {
+        BankManagement bank = bankWithAccounts(store);
+        long before = bank.totalBalanceCents();
+        AtomicLong applied = new AtomicLong();
+        AtomicLong rejected = new AtomicLong();
+
+        long start = System.nanoTime();
+        runOnThreads(threads, (thread, random) -> {
+            for (int i = thread; i < transfers; i += threads) {
+                long from = random.nextInt(ACCOUNTS);
+                long to = random.nextInt(ACCOUNTS);
+                if (from == to) {
+                    continue;
+                }
+                TransactionResult result = bank.tryTransfer(from, to, 1 + random.nextInt(20_000));
+                (result.isApplied() ? applied : rejected).incrementAndGet();
+            }
+        });
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("   %d applied, %d rejected on %d threads in %d ms%n", applied.get(), rejected.get(),
+                threads, elapsed / 1_000_000);
+        TestChecks.check("total money unchanged", before, bank.totalBalanceCents());
+        checkNoNegativeBalances(bank);
+    }
+
+    private static void engineTransfers(int transfers, int threads) throws Exception {
+        BankManagement bank = bankWithAccounts(new HashAccountStore());
+        long before = bank.totalBalanceCents();
+        TransactionEngine engine = new TransactionEngine(bank, threads);
+
+        Random random = new Random(1);
+        List<CompletableFuture<Void>> results = new ArrayList<>(transfers);
+        for (int i = 0; i < transfers; i++) {
+            long from = random.nextInt(ACCOUNTS);
+            long to = (from + 1 + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+            results.add(engine.submitTransfer(from, to, 1 + random.nextInt(20_000)));
+        }
+        int rejected = 0;
+        for (CompletableFuture<Void> result : results) {
+            try {
+                result.join();
+            } catch (Exception e) {
+                rejected++;
+            }
+        }
+        engine.shutdown(DEADLOCK_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        System.out.printf("   %d applied, %d rejected%n", transfers - rejected, rejected);
+        TestChecks.check("total money unchanged", before, bank.totalBalanceCents());
+        checkNoNegativeBalances(bank);
+    }
+
+    private static void shardedTransfers(int transfers, int threads) throws Exception {
+        BankManagement bank = bankWithAccounts(new HashAccountStore());
+        long before = bank.totalBalanceCents();
+        ShardedTransactionEngine engine = bank.startShardedEngine(4);
+        AtomicLong applied = new AtomicLong();
+        AtomicLong rejected = new AtomicLong();
+
+        // Most pairs land on different shards, so most transfers take the handoff path.
+        runOnThreads(threads, (thread, random) -> {
+            for (int i = thread; i < transfers; i += threads) {
+                long from = random.nextInt(ACCOUNTS);
+                long to = (from + 1 + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+                engine.submitTransfer(from, to, 1 + random.nextInt(20_000)).whenComplete(
+                        (done, failure) -> (failure == null ? applied : rejected).incrementAndGet());
+            }
+        });
+        boolean stopped = engine.shutdown(DEADLOCK_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        System.out.printf("   %d applied, %d rejected on %d shards%n", applied.get(), rejected.get(),
+                engine.getShardCount());
+        TestChecks.check("engine stopped", stopped);
+        TestChecks.check("transfers completed", transfers, applied.get() + rejected.get());
+        TestChecks.check("money in flight", 0, engine.inFlightCents());
+        TestChecks.check("total money unchanged", before, bank.totalBalanceCents());
+        checkNoNegativeBalances(bank);
+    }
+
+    private static void oppositeTransfers(int transfers, int threads) throws Exception {
+        BankManagement bank = bankWithAccounts(new HashAccountStore());
+        long before = bank.totalBalanceCents();
+
+        Thread runner = new Thread(() -> {
+            try {
+                runOnThreads(threads, (thread, random) -> {
+                    long from = thread % 2;
+                    for (int i = thread; i < transfers; i += threads) {
+                        bank.tryTransfer(from, 1 - from, 1 + random.nextInt(100));
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        runner.setDaemon(true);
+        runner.start();
+        runner.join(TimeUnit.SECONDS.toMillis(DEADLOCK_TIMEOUT_SECONDS));
+
+        if (runner.isAlive()) {
+            TestChecks.fail("transfers did not finish within " + DEADLOCK_TIMEOUT_SECONDS + " s, likely a deadlock");
+            return;
+        }
+        TestChecks.check("total money unchanged", before, bank.totalBalanceCents());
+    }
+
+    private static BankManagement bankWithAccounts(AccountStore store) throws Exception {
+        for (int i = 0; i < ACCOUNTS; i++) {
+            store.add(Account.ofCents(i, "Holder " + i, INITIAL_BALANCE_CENTS));
+        }
+        return new BankManagement(store);
+    }
+
+    private static void checkNoNegativeBalances(BankManagement bank) {
+        int negative = 0;
+        for (Account account : bank.getAccounts()) {
+            if (account.getBalanceCents() < 0) {
+                negative++;
+            }
+        }
+        TestChecks.check("accounts with a negative balance", 0, negative);
+    }
+
+    private interface Worker {
+        void run(int thread, Random random) throws Exception;
+    }
+
+    // Starts every worker at once and waits for all of them.
+    private static void runOnThreads(int threads, Worker worker) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> running = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            Thread runner = new Thread(() -> {
+                try {
+                    start.await();
+                    worker.run(thread, new Random(thread));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            running.add(runner);
+            runner.start();
+        }
+        start.countDown();
+        for (Thread runner : running) {
+            runner.join();
+        }
+    }
+}
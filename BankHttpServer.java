@@ -0,0 +1,548 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Embedded HTTP/JSON API over a {@link BankManagement}.
+ *
+ * <pre>
+ * GET  /accounts                      list accounts, a page at a time
+ * GET  /accounts/export               all accounts as CSV
+ * GET  /accounts/search?holder=Sitha  accounts by holder name
+ * POST /accounts                      {"holder": "Sitha", "balance": "403.34"}
+ * POST /accounts/{id}/deposit         {"amount": "10.50"}
+ * POST /accounts/{id}/withdraw        {"amount": "10.50"}
+ * POST /transfers                     {"from": 111, "to": 222, "amount": "10.50"}
+ * GET  /accounts/{id}/statement       history entries, by default for the last 30 days, if enabled
+ * GET  /metrics                       operation counts and latencies as JSON, if enabled
+ * </pre>
+ *
+ * Listing and export take optional query parameters minBalance, maxBalance and
+ * holderPrefix; listing also takes cursor and limit (default 100, at most 1000) and
+ * returns {"accounts": [...], "nextCursor": n}, with -1 once there are no more.
+ *
+ * Search takes match=exact (the default), prefix or fuzzy, maxEdits for fuzzy
+ * matching (default 1, at most 3) and limit, and returns {"accounts": [...]}.
+ *
+ * A statement covers the last {@code days} days (default 30), or the epoch-millisecond
+ * range [from, to) when those are given, and returns {"entries": [...]} with the
+ * credits and debits over the range. It only shows transactions made since the server's
+ * bank started keeping history: the history is not rebuilt from the journal after a
+ * restart. Statements are 404 if the bank keeps no history.
+ *
+ * Deposits, withdrawals and transfers take an optional numeric "transactionId". A
+ * retried request with the same ID is not applied again and gets the original outcome:
+ * the same status, and the same error for a rejection. The response body is built at
+ * the time of the retry, so a successful retry shows the account as it is now, which
+ * may include later changes. Reusing an ID for a request with a different account or
+ * amount gets 400.
+ *
+ * Amounts may be JSON numbers or strings in any form {@link AmountParser} accepts.
+ * Bank exceptions map to status codes: not found 404, invalid amount or other invalid
+ * input 400, insufficient funds 409, balance limit 422. A request the bank cannot take
+ * in its current state, such as a deposit while a sharded engine owns the balances,
+ * gets 409. Each request runs on a virtual thread when the runtime has them, otherwise
+ * on a cached thread pool.
+ *
+ * The JDK server sends small responses late unless the system property
+ * sun.net.httpserver.nodelay is true when the first server is created. This class
+ * leaves that JVM-wide choice to the caller; BankApp sets it.
+ */
+class BankHttpServer {
+    private static final int BACKLOG = 16384;
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_FUZZY_EDITS = 3;
+    private static final int DEFAULT_STATEMENT_DAYS = 30;
+    private static final long DAY_MILLIS = 24 * 60 * 60_000;
+
+    private final BankManagement bank;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public BankHttpServer(BankManagement bank, int port) throws IOException {
+        this.bank = bank;
+        this.server = HttpServer.create(new InetSocketAddress(port), BACKLOG);
+        this.executor = newRequestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/accounts", this::handleAccounts);
+        server.createContext("/transfers", this::handleTransfers);
+        server.createContext("/metrics", this::handleMetrics);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "http-request");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private void handleAccounts(HttpExchange exchange) throws IOException {
+        try {
+            String[] parts = exchange.getRequestURI().getPath().split("/");
+            String method = exchange.getRequestMethod();
+
+            if (parts.length == 2 && method.equals("GET")) {
+                listAccounts(exchange);
+            } else if (parts.length == 3 && parts[2].equals("export") && method.equals("GET")) {
+                exportAccounts(exchange);
+            } else if (parts.length == 3 && parts[2].equals("search") && method.equals("GET")) {
+                searchAccounts(exchange);
+            } else if (parts.length == 4 && parts[3].equals("statement") && method.equals("GET")) {
+                statement(exchange, accountId(parts[2]));
+            } else if (parts.length == 2 && method.equals("POST")) {
+                Map<String, String> body = readJson(exchange);
+                String holder = required(body, "holder").trim();
+                if (holder.isEmpty()) {
+                    sendError(exchange, 400, "Account holder name cannot be empty.");
+                    return;
+                }
+                Account account = bank.openAccountCents(holder, amount(required(body, "balance")));
+                bank.awaitDurable();
+                send(exchange, 201, accountJson(account));
+            } else if (parts.length == 4 && method.equals("POST")) {
+                long accountId = accountId(parts[2]);
+                Map<String, String> body = readJson(exchange);
+                long amountCents = amount(required(body, "amount"));
+                String transactionId = body.get("transactionId");
+                Account account;
+                if (parts[3].equals("deposit")) {
+                    account = transactionId == null
+                            ? bank.depositCents(accountId, amountCents)
+                            : bank.depositOnce(number(transactionId, "transactionId"), accountId, amountCents);
+                } else if (parts[3].equals("withdraw")) {
+                    account = transactionId == null
+                            ? bank.withdrawCents(accountId, amountCents)
+                            : bank.withdrawOnce(number(transactionId, "transactionId"), accountId, amountCents);
+                } else {
+                    sendError(exchange, 404, "Unknown operation: " + parts[3]);
+                    return;
+                }
+                bank.awaitDurable();
+                send(exchange, 200, accountJson(account));
+            } else {
+                boolean known = parts.length == 2 || parts.length == 4 || (parts.length == 3 && (parts[2].equals("export") || parts[2].equals("search")));
+                sendError(exchange, known ? 405 : 404, "Unsupported request");
+            }
+        } catch (Exception e) {
+            sendFailure(exchange, e);
+        }
+    }
+
+    private void handleTransfers(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                sendError(exchange, 405, "Unsupported request");
+                return;
+            }
+            Map<String, String> body = readJson(exchange);
+            long fromAccountId = number(required(body, "from"), "from");
+            long toAccountId = number(required(body, "to"), "to");
+            if (fromAccountId == toAccountId) {
+                sendError(exchange, 400, "Cannot transfer to the same account.");
+                return;
+            }
+
+            long amountCents = amount(required(body, "amount"));
+            String transactionId = body.get("transactionId");
+            if (transactionId == null) {
+                bank.transferCents(fromAccountId, toAccountId, amountCents);
+            } else {
+                bank.transferOnce(number(transactionId, "transactionId"), fromAccountId, toAccountId, amountCents);
+            }
+            bank.awaitDurable();
+            send(exchange, 200, "{\"from\":" + fromAccountId + ",\"to\":" + toAccountId + ",\"status\":\"ok\"}");
+        } catch (Exception e) {
+            sendFailure(exchange, e);
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            sendError(exchange, 405, "Unsupported request");
+            return;
+        }
+        if (!bank.getMetrics().isEnabled()) {
+            sendError(exchange, 404, "Metrics are not enabled for this bank.");
+            return;
+        }
+        send(exchange, 200, bank.getMetrics().toJson());
+    }
+
+    private void listAccounts(HttpExchange exchange)
+            throws IOException, InvalidRequestException, InvalidAmountException {
+        Map<String, String> query = readQuery(exchange);
+        long cursor = parameter(query, "cursor", AccountPage.FIRST);
+        long limit = parameter(query, "limit", DEFAULT_PAGE_SIZE);
+        if (cursor < 0 || limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new InvalidRequestException("cursor must be non-negative and limit between 1 and " + MAX_PAGE_SIZE);
+        }
+
+        AccountPage page = bank.listAccounts(cursor, (int) limit, filter(query));
+        StringBuilder json = accountsJson(page.getAccounts());
+        json.append(",\"nextCursor\":").append(page.getNextCursor()).append('}');
+        send(exchange, 200, json.toString());
+    }
+
+    private void searchAccounts(HttpExchange exchange) throws IOException, InvalidRequestException {
+        Map<String, String> query = readQuery(exchange);
+        String holder = query.get("holder");
+        if (holder == null || holder.trim().isEmpty()) {
+            throw new InvalidRequestException("Missing query parameter: holder");
+        }
+        long limit = parameter(query, "limit", DEFAULT_PAGE_SIZE);
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new InvalidRequestException("limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+
+        List<Account> found;
+        String match = query.getOrDefault("match", "exact");
+        if (match.equals("exact")) {
+            found = bank.findAccountsByHolder(holder, (int) limit);
+        } else if (match.equals("prefix")) {
+            found = bank.findAccountsByHolderPrefix(holder, (int) limit);
+        } else if (match.equals("fuzzy")) {
+            long maxEdits = parameter(query, "maxEdits", 1);
+            if (maxEdits < 0 || maxEdits > MAX_FUZZY_EDITS) {
+                throw new InvalidRequestException("maxEdits must be between 0 and " + MAX_FUZZY_EDITS);
+            }
+            found = bank.findAccountsByHolderFuzzy(holder, (int) maxEdits, (int) limit);
+        } else {
+            throw new InvalidRequestException("match must be exact, prefix or fuzzy");
+        }
+        send(exchange, 200, accountsJson(found).append('}').toString());
+    }
+
+    private void statement(HttpExchange exchange, long accountId)
+            throws IOException, InvalidRequestException, AccountNotFoundException {
+        if (!bank.getHistory().isEnabled()) {
+            sendError(exchange, 404, "History is not enabled for this bank.");
+            return;
+        }
+        Map<String, String> query = readQuery(exchange);
+        long to = parameter(query, "to", System.currentTimeMillis());
+        long from;
+        if (query.containsKey("from")) {
+            from = parameter(query, "from", 0);
+        } else {
+            long days = parameter(query, "days", DEFAULT_STATEMENT_DAYS);
+            if (days < 1 || days > Integer.MAX_VALUE) {
+                throw new InvalidRequestException("days must be between 1 and " + Integer.MAX_VALUE);
+            }
+            from = to - days * DAY_MILLIS;
+        }
+
+        TransactionHistory.Statement statement = bank.statement(accountId, from, to);
+        StringBuilder json = new StringBuilder(128 + statement.size() * 80);
+        json.append("{\"id\":").append(accountId).append(",\"from\":").append(from).append(",\"to\":").append(to)
+                .append(",\"entries\":[");
+        for (int i = 0; i < statement.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"time\":").append(statement.getTimeMillis(i)).append(",\"type\":");
+            appendString(json, TransactionHistory.typeName(statement.getType(i)));
+            json.append(",\"amount\":");
+            Money.appendTo(json, statement.getAmountCents(i));
+            if (statement.getCounterpartyId(i) != TransactionHistory.NO_ACCOUNT) {
+                json.append(",\"counterparty\":").append(statement.getCounterpartyId(i));
+            }
+            json.append('}');
+        }
+        json.append("],\"credits\":");
+        Money.appendTo(json, statement.getCreditsCents());
+        json.append(",\"debits\":");
+        Money.appendTo(json, statement.getDebitsCents());
+        send(exchange, 200, json.append('}').toString());
+    }
+
+    // Opens {"accounts":[...] and leaves the object open for more fields.
+    private static StringBuilder accountsJson(List<Account> accounts) {
+        StringBuilder json = new StringBuilder("{\"accounts\":[");
+        for (int i = 0; i < accounts.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(accountJson(accounts.get(i)));
+        }
+        return json.append(']');
+    }
+
+    private void exportAccounts(HttpExchange exchange)
+            throws IOException, InvalidRequestException, InvalidAmountException {
+        AccountFilter filter = filter(readQuery(exchange));
+        exchange.getResponseHeaders().set("Content-Type", "text/csv; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            bank.exportAccounts(filter, Channels.newChannel(out));
+        }
+    }
+
+    private static AccountFilter filter(Map<String, String> query) throws InvalidAmountException {
+        AccountFilter filter = AccountFilter.ALL;
+        if (query.containsKey("minBalance") || query.containsKey("maxBalance")) {
+            filter = filter.withBalanceBetween(
+                    query.containsKey("minBalance") ? amount(query.get("minBalance")) : Long.MIN_VALUE,
+                    query.containsKey("maxBalance") ? amount(query.get("maxBalance")) : Long.MAX_VALUE);
+        }
+        return filter.withHolderPrefix(query.get("holderPrefix"));
+    }
+
+    private static Map<String, String> readQuery(HttpExchange exchange) throws InvalidRequestException {
+        Map<String, String> values = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return values;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals <= 0) {
+                throw new InvalidRequestException("Malformed query parameter: " + pair);
+            }
+            try {
+                values.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+                        URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+            } catch (IllegalArgumentException | UnsupportedEncodingException e) {
+                throw new InvalidRequestException("Malformed query parameter: " + pair);
+            }
+        }
+        return values;
+    }
+
+    private static String accountJson(Account account) {
+        StringBuilder json = new StringBuilder(64);
+        json.append("{\"id\":").append(account.getAccountId()).append(",\"holder\":");
+        appendString(json, account.getAccountHolder());
+        json.append(",\"balance\":");
+        Money.appendTo(json, account.getBalanceCents());
+        return json.append('}').toString();
+    }
+
+    private static long amount(String text) throws InvalidAmountException {
+        long cents = AmountParser.parse(text);
+        if (cents < 0) {
+            throw new InvalidAmountException("Invalid amount format. Use format like: 100.50");
+        }
+        return cents;
+    }
+
+    private static long accountId(String text) throws InvalidRequestException {
+        return number(text, "account ID");
+    }
+
+    private static long parameter(Map<String, String> query, String name, long defaultValue)
+            throws InvalidRequestException {
+        String value = query.get(name);
+        return value == null ? defaultValue : number(value, name);
+    }
+
+    // Names what is wrong, since a request can carry several numbers.
+    private static long number(String text, String name) throws InvalidRequestException {
+        try {
+            return Long.parseLong(text.trim());
+        } catch (NumberFormatException e) {
+            throw new InvalidRequestException("Invalid " + name + ": " + text);
+        }
+    }
+
+    private static String required(Map<String, String> body, String field) throws InvalidRequestException {
+        String value = body.get(field);
+        if (value == null) {
+            throw new InvalidRequestException("Missing field: " + field);
+        }
+        return value;
+    }
+
+    private void sendFailure(HttpExchange exchange, Exception e) throws IOException {
+        if (e instanceof AccountNotFoundException) {
+            sendError(exchange, 404, e.getMessage());
+        } else if (e instanceof InsufficientFundsException) {
+            sendError(exchange, 409, e.getMessage());
+        } else if (e instanceof BalanceLimitException) {
+            sendError(exchange, 422, e.getMessage());
+        } else if (e instanceof InvalidAmountException || e instanceof InvalidRequestException
+                || e instanceof IllegalArgumentException) {
+            sendError(exchange, 400, e.getMessage());
+        } else if (e instanceof IllegalStateException) {
+            sendError(exchange, 409, e.getMessage());
+        } else {
+            sendError(exchange, 500, "Internal error: " + e.getMessage());
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        StringBuilder json = new StringBuilder("{\"error\":");
+        appendString(json, message);
+        send(exchange, status, json.append('}').toString());
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * Reads a flat JSON object whose values are strings, numbers or booleans.
+     */
+    private static Map<String, String> readJson(HttpExchange exchange) throws IOException, InvalidRequestException {
+        String text;
+        try (InputStream in = exchange.getRequestBody()) {
+            text = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        return new FlatJsonParser(text).parseObject();
+    }
+
+    static class InvalidRequestException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public InvalidRequestException(String message) {
+            super(message);
+        }
+    }
+
+    private static class FlatJsonParser {
+        private final String text;
+        private int position;
+
+        FlatJsonParser(String text) {
+            this.text = text;
+        }
+
+        Map<String, String> parseObject() throws InvalidRequestException {
+            Map<String, String> values = new HashMap<>();
+            expect('{');
+            if (peek() == '}') {
+                position++;
+                return end(values);
+            }
+            while (true) {
+                String key = parseString();
+                expect(':');
+                values.put(key, parseValue());
+                char next = next();
+                if (next == '}') {
+                    return end(values);
+                }
+                if (next != ',') {
+                    throw new InvalidRequestException("Malformed JSON body.");
+                }
+            }
+        }
+
+        private Map<String, String> end(Map<String, String> values) throws InvalidRequestException {
+            if (peek() != 0) {
+                throw new InvalidRequestException("Malformed JSON body.");
+            }
+            return values;
+        }
+
+        private String parseValue() throws InvalidRequestException {
+            if (peek() == '"') {
+                return parseString();
+            }
+            int start = position;
+            while (position < text.length() && ",} \t\r\n".indexOf(text.charAt(position)) < 0) {
+                position++;
+            }
+            if (start == position) {
+                throw new InvalidRequestException("Malformed JSON body.");
+            }
+            return text.substring(start, position);
+        }
+
+        private String parseString() throws InvalidRequestException {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (position < text.length()) {
+                char c = text.charAt(position++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c == '\\' && position < text.length()) {
+                    char escaped = text.charAt(position++);
+                    if (escaped == 'u' && position + 4 <= text.length()) {
+                        try {
+                            value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw new InvalidRequestException("Malformed JSON body.");
+                        }
+                        position += 4;
+                    } else {
+                        value.append(escaped == 'n' ? '\n' : escaped == 't' ? '\t' : escaped);
+                    }
+                } else {
+                    value.append(c);
+                }
+            }
+            throw new InvalidRequestException("Malformed JSON body.");
+        }
+
+        private void expect(char expected) throws InvalidRequestException {
+            if (next() != expected) {
+                throw new InvalidRequestException("Malformed JSON body.");
+            }
+        }
+
+        private char next() {
+            char c = peek();
+            position++;
+            return c;
+        }
+
+        private char peek() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+            return position < text.length() ? text.charAt(position) : 0;
+        }
+    }
+}
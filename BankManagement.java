@@ -0,0 +1,1151 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+class BankManagement {
+    private static final int JOURNAL_GROUP_COMMIT_SIZE = 256;
+    private static final long JOURNAL_MAX_DELAY_MILLIS = 2;
+    private static final long FIRST_CUSTOMER_ACCOUNT_ID = 10001;
+    private static final int LIST_PAGE_SIZE = 20;
+    private static final int DEDUP_CAPACITY = 1 << 20;
+    private static final long DEDUP_TTL_MILLIS = 10 * 60_000;
+    private static final long HISTORY_RETENTION_MILLIS = 90L * 24 * 60 * 60_000;
+
+    private AccountStore accounts;
+    private final HolderIndex holderIndex;
+    private final AtomicLong nextAccountId = new AtomicLong(111);
+    private Scanner scanner;
+    private TransactionJournal journal;
+    private Path snapshotPath;
+    private final Object snapshotLock = new Object();
+    private ScheduledExecutorService snapshotScheduler;
+    private final Object analyticsLock = new Object();
+    private volatile BalanceCapture capture;
+    private volatile BankMetrics metrics = BankMetrics.DISABLED;
+    private final TransactionDedupCache dedup = new TransactionDedupCache(DEDUP_CAPACITY, DEDUP_TTL_MILLIS);
+    private volatile TransactionHistory history = TransactionHistory.DISABLED;
+    private ShardedTransactionEngine shardedEngine;
+    private volatile boolean sharded;
+
+    public BankManagement() {
+        this(new HashAccountStore());
+    }
+
+    public BankManagement(AccountStore accounts) {
+        this.accounts = accounts;
+        holderIndex = new HolderIndex(accounts);
+        scanner = new Scanner(System.in);
+
+        holderIndex.rebuild();
+        initializeSampleAccounts();
+    }
+
+    /**
+     * Creates a bank whose operations are recorded in a write-ahead journal. If the
+     * journal already holds records, the accounts are rebuilt from it instead of
+     * loading the sample accounts.
+     */
+    public BankManagement(AccountStore accounts, Path journalPath) throws IOException {
+        this(accounts, journalPath, null);
+    }
+
+    /**
+     * Creates a journaled bank that also keeps snapshots at {@code snapshotPath}. When a
+     * snapshot exists it is loaded first and only the journal records written after it
+     * are replayed.
+     */
+    public BankManagement(AccountStore accounts, Path journalPath, Path snapshotPath) throws IOException {
+        this.accounts = accounts;
+        this.snapshotPath = snapshotPath;
+        holderIndex = new HolderIndex(accounts);
+        scanner = new Scanner(System.in);
+
+        AccountSnapshot snapshot = snapshotPath == null ? null
+                : AccountSnapshot.load(snapshotPath, (accountId, accountHolder, balanceCents, sequence) -> {
+                    Account account = Account.ofCents(accountId, accountHolder, balanceCents);
+                    account.setJournalSequence(sequence);
+                    accounts.add(account);
+                    nextAccountId.accumulateAndGet(accountId + 1, Math::max);
+                });
+
+        if (snapshot == null) {
+            journal = TransactionJournal.open(journalPath, JOURNAL_GROUP_COMMIT_SIZE, JOURNAL_MAX_DELAY_MILLIS,
+                    new JournalReplayer());
+        } else {
+            journal = TransactionJournal.open(journalPath, JOURNAL_GROUP_COMMIT_SIZE, JOURNAL_MAX_DELAY_MILLIS,
+                    snapshot.journalPosition, snapshot.journalSequence, new JournalReplayer());
+        }
+        holderIndex.rebuild();
+
+        if (snapshot == null && journal.getRecoveredRecords() == 0) {
+            initializeSampleAccounts();
+            journal.sync();
+        } else {
+            nextAccountId.accumulateAndGet(FIRST_CUSTOMER_ACCOUNT_ID, Math::max);
+        }
+    }
+
+    private void initializeSampleAccounts() {
+        try {
+            addAccount(new Account(111, "Sitha", 403.34));
+            addAccount(new Account(222, "Rith", 803.34));
+            addAccount(new Account(333, "Heng", 603.34));
+            addAccount(new Account(4444, "Lin", 203.34));
+            nextAccountId.accumulateAndGet(FIRST_CUSTOMER_ACCOUNT_ID, Math::max);
+        } catch (Exception e) {
+            System.out.println("Error initializing sample accounts: " + e.getMessage());
+        }
+    }
+
+    public void displayMenu() {
+        System.out.println(":::: The Bank ::::");
+        System.out.println("1.  Account List");
+        System.out.println("2.  Create an account");
+        System.out.println("3.  Deposit to an account");
+        System.out.println("4.  Withdraw from an account");
+        System.out.println("5.  Transfer to another account");
+        System.out.println("6.  Quit");
+        System.out.print("Choose an opt: ");
+    }
+
+    public void displayAccountList() {
+        System.out.println(":::: Account List ::::");
+        if (accounts.isEmpty()) {
+            System.out.println("No accounts found.");
+            return;
+        }
+
+        int number = 1;
+        long cursor = AccountPage.FIRST;
+        StringBuilder out = new StringBuilder(LIST_PAGE_SIZE * 80);
+        while (true) {
+            AccountPage page = listAccounts(cursor, LIST_PAGE_SIZE, AccountFilter.ALL);
+            out.setLength(0);
+            for (Account account : page.getAccounts()) {
+                out.append("No #").append(number++).append('\n').append(account).append("\n\n");
+            }
+            System.out.print(out);
+
+            if (!page.hasMore()) {
+                return;
+            }
+            System.out.print("Press Enter for more, or q to return to the menu: ");
+            if (scanner.nextLine().trim().equalsIgnoreCase("q")) {
+                return;
+            }
+            cursor = page.getNextCursor();
+        }
+    }
+
+    public void createAccount() {
+        try {
+            System.out.print("Enter account holder name: ");
+            String name = scanner.nextLine().trim();
+
+            if (name.isEmpty()) {
+                System.out.println("Error: Account holder name cannot be empty.");
+                return;
+            }
+
+            System.out.print("Enter initial balance: $");
+            String balanceInput = scanner.nextLine().trim();
+
+            long initialBalanceCents = parseAmount(balanceInput);
+
+            Account newAccount = openAccountCents(name, initialBalanceCents);
+            awaitDurable();
+
+            System.out.println("Account created successfully!");
+            System.out.println("Account ID: " + newAccount.getAccountId());
+
+        } catch (NumberFormatException e) {
+            System.out.println("Error: Invalid amount format. Please enter a valid number.");
+        } catch (InvalidAmountException | BalanceLimitException e) {
+            System.out.println("Error: " + e.getMessage());
+        } catch (Exception e) {
+            System.out.println("Error creating account: " + e.getMessage());
+        }
+    }
+
+    public void depositToAccount() {
+        try {
+            System.out.print("Enter account ID: ");
+            long accountId = Long.parseLong(scanner.nextLine().trim());
+
+            Account account = checkAccount(accountId);
+
+            System.out.print("Enter deposit amount: $");
+            String amountInput = scanner.nextLine().trim();
+            long amountCents = parseAmount(amountInput);
+
+            depositCents(accountId, amountCents);
+            awaitDurable();
+            System.out.println("Deposit successful!");
+            System.out.println("New balance: $" + String.format("%.2f", account.getBalance()));
+
+        } catch (NumberFormatException e) {
+            System.out.println("Error: Invalid input format.");
+        } catch (AccountNotFoundException | InvalidAmountException | BalanceLimitException e) {
+            System.out.println("Error: " + e.getMessage());
+        } catch (Exception e) {
+            System.out.println("Error processing deposit: " + e.getMessage());
+        }
+    }
+
+    public void withdrawFromAccount() {
+        try {
+            System.out.print("Enter account ID: ");
+            long accountId = Long.parseLong(scanner.nextLine().trim());
+
+            Account account = checkAccount(accountId);
+
+            System.out.print("Enter withdrawal amount: $");
+            String amountInput = scanner.nextLine().trim();
+            long amountCents = parseAmount(amountInput);
+
+            withdrawCents(accountId, amountCents);
+            awaitDurable();
+            System.out.println("Withdrawal successful!");
+            System.out.println("New balance: $" + String.format("%.2f", account.getBalance()));
+
+        } catch (NumberFormatException e) {
+            System.out.println("Error: Invalid input format.");
+        } catch (AccountNotFoundException | InvalidAmountException | InsufficientFundsException
+                | BalanceLimitException e) {
+            System.out.println("Error: " + e.getMessage());
+        } catch (Exception e) {
+            System.out.println("Error processing withdrawal: " + e.getMessage());
+        }
+    }
+
+    public void transferBetweenAccounts() {
+        try {
+            System.out.print("Enter source account ID: ");
+            long fromAccountId = Long.parseLong(scanner.nextLine().trim());
+
+            System.out.print("Enter destination account ID: ");
+            long toAccountId = Long.parseLong(scanner.nextLine().trim());
+
+            if (fromAccountId == toAccountId) {
+                System.out.println("Error: Cannot transfer to the same account.");
+                return;
+            }
+
+            Account fromAccount = checkAccount(fromAccountId);
+            Account toAccount = checkAccount(toAccountId);
+
+            System.out.print("Enter transfer amount: $");
+            String amountInput = scanner.nextLine().trim();
+            long amountCents = parseAmount(amountInput);
+
+            transferCents(fromAccountId, toAccountId, amountCents);
+            awaitDurable();
+
+            System.out.println("Transfer successful!");
+            System.out.println("From Account Balance: $" + String.format("%.2f", fromAccount.getBalance()));
+            System.out.println("To Account Balance: $" + String.format("%.2f", toAccount.getBalance()));
+
+        } catch (NumberFormatException e) {
+            System.out.println("Error: Invalid input format.");
+        } catch (AccountNotFoundException | InvalidAmountException | InsufficientFundsException
+                | BalanceLimitException e) {
+            System.out.println("Error: " + e.getMessage());
+        } catch (Exception e) {
+            System.out.println("Error processing transfer: " + e.getMessage());
+        }
+    }
+
+    /**
+     * All accounts in creation order. Iteration is safe while transactions run.
+     */
+    public Iterable<Account> getAccounts() {
+        return accounts;
+    }
+
+    /**
+     * Returns up to {@code limit} accounts the filter accepts, in creation order,
+     * starting at {@code cursor}. Start with {@link AccountPage#FIRST} and pass each
+     * page's next cursor to continue. Accounts created while paging appear on later
+     * pages; none are skipped or repeated.
+     */
+    public AccountPage listAccounts(long cursor, int limit, AccountFilter filter) {
+        if (cursor < 0 || limit < 1) {
+            throw new IllegalArgumentException("Cursor must be non-negative and limit positive");
+        }
+
+        List<Account> page = new ArrayList<>(Math.min(limit, 1024));
+        int position = (int) Math.min(cursor, Integer.MAX_VALUE);
+        Account account;
+        while (page.size() < limit && (account = accounts.accountAt(position)) != null) {
+            position++;
+            if (filter.matches(account)) {
+                page.add(account);
+            }
+        }
+        return new AccountPage(page, accounts.accountAt(position) == null ? AccountPage.END : position);
+    }
+
+    /**
+     * Streams the accounts the filter accepts to {@code out} as CSV and returns how
+     * many were written. See {@link AccountExporter} for the format.
+     */
+    public long exportAccounts(AccountFilter filter, WritableByteChannel out) throws IOException {
+        return new AccountExporter().export(accounts, filter, out);
+    }
+
+    /**
+     * Sum of all balances, read account by account while transactions keep running.
+     */
+    public long totalBalanceCents() {
+        return accounts.totalBalanceCents();
+    }
+
+    /**
+     * Operation counters and latency histograms for this bank, or
+     * {@link BankMetrics#DISABLED} until {@link #enableMetrics} is called.
+     */
+    public BankMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Starts recording operation metrics, which are off by default because of what they
+     * add to every operation. Returns the metrics; calling it again returns the same ones.
+     */
+    public synchronized BankMetrics enableMetrics() {
+        if (!metrics.isEnabled()) {
+            metrics = new BankMetrics();
+        }
+        return metrics;
+    }
+
+    /**
+     * Deposits, withdrawals and transfers since {@link #enableHistory} was called, or
+     * {@link TransactionHistory#DISABLED} before that.
+     */
+    public TransactionHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * Starts keeping a history of deposits, withdrawals and transfers for statements,
+     * which is off by default because of what it adds to every transaction. Entries
+     * are kept for 90 days by default; the retention window can be changed on the
+     * returned history. Returns the history; calling it again returns the same one.
+     * Call it before starting a sharded engine, which records to the history that was
+     * current when it started.
+     */
+    public synchronized TransactionHistory enableHistory() {
+        if (!history.isEnabled()) {
+            history = new TransactionHistory(HISTORY_RETENTION_MILLIS);
+        }
+        return history;
+    }
+
+    /**
+     * The account's history entries with times in [fromMillis, toMillis), oldest first.
+     * Only transactions made since {@link #enableHistory} in this process are included:
+     * the history is kept in memory and is not rebuilt from the journal after a
+     * restart, since journal records carry no times. Empty while history is disabled.
+     */
+    public TransactionHistory.Statement statement(long accountId, long fromMillis, long toMillis)
+            throws AccountNotFoundException {
+        findAccount(accountId);
+        return history.statement(accountId, fromMillis, toMillis, System.currentTimeMillis());
+    }
+
+    /**
+     * Runs the reports in {@code analytics} over every account as of a single instant,
+     * without pausing transactions. One analytics pass runs at a time.
+     */
+    public AccountAnalytics.Report analyzeAccounts(AccountAnalytics analytics) {
+        synchronized (analyticsLock) {
+            BalanceCapture current = new BalanceCapture();
+            capture = current;
+            try {
+                // Accounts created after this point are left out of the report.
+                return analytics.run(accounts, current, accounts.size());
+            } finally {
+                capture = null;
+            }
+        }
+    }
+
+    /**
+     * Runs the standard nightly reports on the common fork-join pool: balances in
+     * buckets of $10, $100, $1,000, $10,000 and $100,000, the 100 largest balances and
+     * the accounts within $1,000 of the balance limit.
+     */
+    public AccountAnalytics.Report analyzeAccounts() {
+        return analyzeAccounts(new AccountAnalytics(ForkJoinPool.commonPool(),
+                new long[] {1_000, 10_000, 100_000, 1_000_000, 10_000_000}, 100, 100_000));
+    }
+
+    /**
+     * Returns up to {@code limit} accounts whose holder name matches, ignoring case and
+     * surrounding whitespace.
+     */
+    public List<Account> findAccountsByHolder(String accountHolder, int limit) {
+        return holderIndex.findExact(accountHolder, limit);
+    }
+
+    /**
+     * Returns up to {@code limit} accounts whose holder name starts with the prefix,
+     * ignoring case, ordered by name.
+     */
+    public List<Account> findAccountsByHolderPrefix(String prefix, int limit) {
+        return holderIndex.findByPrefix(prefix, limit);
+    }
+
+    /**
+     * Returns up to {@code limit} accounts whose holder name is within
+     * {@code maxEdits} single-character edits of the given name, ignoring case.
+     */
+    public List<Account> findAccountsByHolderFuzzy(String accountHolder, int maxEdits, int limit) {
+        return holderIndex.findFuzzy(accountHolder, maxEdits, limit);
+    }
+
+    public Account openAccount(String accountHolder, double initialBalance)
+            throws InvalidAmountException, BalanceLimitException {
+        return openAccountCents(accountHolder, Account.toCents(initialBalance, "Initial balance"));
+    }
+
+    public Account openAccountCents(String accountHolder, long initialBalanceCents)
+            throws InvalidAmountException, BalanceLimitException {
+        Account account = Account.ofCents(nextAccountId.getAndIncrement(), accountHolder, initialBalanceCents);
+        return addAccount(account);
+    }
+
+    /**
+     * Opens one account per holder, with consecutive IDs starting at the returned ID.
+     * The ID range is reserved with a single atomic step, so concurrent batches never
+     * overlap, and the accounts go into the store and the holder index as one batch.
+     * Every balance, and every holder name's length, is checked before anything is
+     * added: if one is invalid, no account is opened and the reserved IDs are skipped.
+     */
+    public long openAccountsCents(List<String> accountHolders, long[] initialBalanceCents)
+            throws InvalidAmountException, BalanceLimitException {
+        int count = accountHolders.size();
+        if (initialBalanceCents.length != count) {
+            throw new IllegalArgumentException("Need one initial balance per account holder");
+        }
+        long firstId = nextAccountId.getAndAdd(count);
+        List<Account> batch = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            batch.add(Account.ofCents(firstId + i, accountHolders.get(i), initialBalanceCents[i]));
+        }
+        addAccounts(batch);
+        return firstId;
+    }
+
+    public Account deposit(long accountId, double amount)
+            throws AccountNotFoundException, InvalidAmountException, BalanceLimitException {
+        return depositCents(accountId, Account.toCents(amount, "Deposit"));
+    }
+
+    public Account withdraw(long accountId, double amount) throws AccountNotFoundException,
+            InvalidAmountException, InsufficientFundsException, BalanceLimitException {
+        return withdrawCents(accountId, Account.toCents(amount, "Withdrawal"));
+    }
+
+    public void transfer(long fromAccountId, long toAccountId, double amount) throws AccountNotFoundException,
+            InvalidAmountException, InsufficientFundsException, BalanceLimitException {
+        transferCents(fromAccountId, toAccountId, Account.toCents(amount, "Transfer"));
+    }
+
+    public Account depositCents(long accountId, long amountCents)
+            throws AccountNotFoundException, InvalidAmountException, BalanceLimitException {
+        long start = metrics.start();
+        try {
+            Account account = findAccount(accountId, start);
+            synchronized (account.lock()) {
+                checkNotSharded();
+                preserve(account);
+                account.depositCents(amountCents);
+                recordDeposit(account, amountCents);
+            }
+            metrics.record(BankMetrics.Operation.DEPOSIT, TransactionResult.APPLIED, start);
+            return account;
+        } catch (Exception e) {
+            metrics.record(BankMetrics.Operation.DEPOSIT, e, start);
+            throw e;
+        }
+    }
+
+    public Account withdrawCents(long accountId, long amountCents) throws AccountNotFoundException,
+            InvalidAmountException, InsufficientFundsException, BalanceLimitException {
+        long start = metrics.start();
+        try {
+            Account account = findAccount(accountId, start);
+            synchronized (account.lock()) {
+                checkNotSharded();
+                preserve(account);
+                account.withdrawCents(amountCents);
+                recordWithdrawal(account, amountCents);
+            }
+            metrics.record(BankMetrics.Operation.WITHDRAW, TransactionResult.APPLIED, start);
+            return account;
+        } catch (Exception e) {
+            metrics.record(BankMetrics.Operation.WITHDRAW, e, start);
+            throw e;
+        }
+    }
+
+    /**
+     * Transfers between two accounts. Both accounts stay locked, in lock order,
+     * until the transfer has been journaled.
+     */
+    public void transferCents(long fromAccountId, long toAccountId, long amountCents)
+            throws AccountNotFoundException, InvalidAmountException, InsufficientFundsException,
+            BalanceLimitException {
+        long start = metrics.start();
+        try {
+            Account fromAccount = findAccount(fromAccountId, start);
+            Account toAccount = findAccount(toAccountId, start);
+            Account first = fromAccount.lockOrder() <= toAccount.lockOrder() ? fromAccount : toAccount;
+            Account second = first == fromAccount ? toAccount : fromAccount;
+
+            synchronized (first.lock()) {
+                synchronized (second.lock()) {
+                    checkNotSharded();
+                    preserve(fromAccount, toAccount);
+                    fromAccount.transferCents(amountCents, toAccount);
+                    recordTransfer(fromAccount, toAccount, amountCents);
+                }
+            }
+            metrics.record(BankMetrics.Operation.TRANSFER, TransactionResult.APPLIED, start);
+        } catch (Exception e) {
+            if (e instanceof IllegalArgumentException && fromAccountId == toAccountId) {
+                metrics.record(BankMetrics.Operation.TRANSFER, TransactionResult.SAME_ACCOUNT, start);
+            } else {
+                metrics.record(BankMetrics.Operation.TRANSFER, e, start);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Deposits without throwing for business rejections. Use {@link #describeRejection}
+     * to get the message for a rejected result.
+     */
+    public TransactionResult tryDeposit(long accountId, long amountCents) {
+        long start = metrics.start();
+        TransactionResult result = applyDeposit(accountId, amountCents, start);
+        metrics.record(BankMetrics.Operation.DEPOSIT, result, start);
+        return result;
+    }
+
+    public TransactionResult tryWithdraw(long accountId, long amountCents) {
+        long start = metrics.start();
+        TransactionResult result = applyWithdrawal(accountId, amountCents, start);
+        metrics.record(BankMetrics.Operation.WITHDRAW, result, start);
+        return result;
+    }
+
+    public TransactionResult tryTransfer(long fromAccountId, long toAccountId, long amountCents) {
+        long start = metrics.start();
+        TransactionResult result = applyTransfer(fromAccountId, toAccountId, amountCents, start);
+        metrics.record(BankMetrics.Operation.TRANSFER, result, start);
+        return result;
+    }
+
+    private TransactionResult applyDeposit(long accountId, long amountCents, long start) {
+        Account account = lookup(accountId, start);
+        if (account == null) {
+            return TransactionResult.ACCOUNT_NOT_FOUND;
+        }
+        synchronized (account.lock()) {
+            checkNotSharded();
+            preserve(account);
+            TransactionResult result = account.tryDeposit(amountCents);
+            if (result.isApplied()) {
+                recordDeposit(account, amountCents);
+            }
+            return result;
+        }
+    }
+
+    private TransactionResult applyWithdrawal(long accountId, long amountCents, long start) {
+        Account account = lookup(accountId, start);
+        if (account == null) {
+            return TransactionResult.ACCOUNT_NOT_FOUND;
+        }
+        synchronized (account.lock()) {
+            checkNotSharded();
+            preserve(account);
+            TransactionResult result = account.tryWithdraw(amountCents);
+            if (result.isApplied()) {
+                recordWithdrawal(account, amountCents);
+            }
+            return result;
+        }
+    }
+
+    private TransactionResult applyTransfer(long fromAccountId, long toAccountId, long amountCents,
+            long start) {
+        Account fromAccount = lookup(fromAccountId, start);
+        Account toAccount = lookup(toAccountId, start);
+        if (fromAccount == null || toAccount == null) {
+            return TransactionResult.ACCOUNT_NOT_FOUND;
+        }
+        if (fromAccountId == toAccountId) {
+            return TransactionResult.SAME_ACCOUNT;
+        }
+        Account first = fromAccount.lockOrder() <= toAccount.lockOrder() ? fromAccount : toAccount;
+        Account second = first == fromAccount ? toAccount : fromAccount;
+
+        synchronized (first.lock()) {
+            synchronized (second.lock()) {
+                checkNotSharded();
+                preserve(fromAccount, toAccount);
+                TransactionResult result = fromAccount.tryTransfer(amountCents, toAccount);
+                if (result.isApplied()) {
+                    recordTransfer(fromAccount, toAccount, amountCents);
+                }
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Deposits under a client transaction ID. A transaction whose ID was seen in the
+     * last ten minutes (or among the last million IDs) is not applied again; the
+     * original result is returned instead. An ID already used for a transaction with
+     * other parameters gets {@link TransactionResult#TRANSACTION_ID_REUSED}. The same
+     * holds for the other methods whose names end in Once.
+     */
+    public TransactionResult tryDepositOnce(long transactionId, long accountId, long amountCents) {
+        TransactionResult result = dedup.claim(transactionId,
+                paramsHash(TransactionJournal.DEPOSIT, accountId, accountId, amountCents));
+        if (result != null) {
+            return result;
+        }
+        try {
+            result = tryDeposit(accountId, amountCents);
+            return result;
+        } finally {
+            settle(transactionId, result);
+        }
+    }
+
+    public TransactionResult tryWithdrawOnce(long transactionId, long accountId, long amountCents) {
+        TransactionResult result = dedup.claim(transactionId,
+                paramsHash(TransactionJournal.WITHDRAW, accountId, accountId, amountCents));
+        if (result != null) {
+            return result;
+        }
+        try {
+            result = tryWithdraw(accountId, amountCents);
+            return result;
+        } finally {
+            settle(transactionId, result);
+        }
+    }
+
+    public TransactionResult tryTransferOnce(long transactionId, long fromAccountId, long toAccountId,
+            long amountCents) {
+        TransactionResult result = dedup.claim(transactionId,
+                paramsHash(TransactionJournal.TRANSFER, fromAccountId, toAccountId, amountCents));
+        if (result != null) {
+            return result;
+        }
+        try {
+            result = tryTransfer(fromAccountId, toAccountId, amountCents);
+            return result;
+        } finally {
+            settle(transactionId, result);
+        }
+    }
+
+    public Account depositOnce(long transactionId, long accountId, long amountCents)
+            throws AccountNotFoundException, InvalidAmountException, BalanceLimitException {
+        TransactionResult result = tryDepositOnce(transactionId, accountId, amountCents);
+        try {
+            throwIfRejected(result, "Deposit", accountId, accountId);
+        } catch (InsufficientFundsException e) {
+            // Deposits are never rejected for lack of funds.
+            throw new AssertionError(e);
+        }
+        return checkAccount(accountId);
+    }
+
+    public Account withdrawOnce(long transactionId, long accountId, long amountCents)
+            throws AccountNotFoundException, InvalidAmountException, InsufficientFundsException,
+            BalanceLimitException {
+        throwIfRejected(tryWithdrawOnce(transactionId, accountId, amountCents), "Withdrawal", accountId, accountId);
+        return checkAccount(accountId);
+    }
+
+    public void transferOnce(long transactionId, long fromAccountId, long toAccountId, long amountCents)
+            throws AccountNotFoundException, InvalidAmountException, InsufficientFundsException,
+            BalanceLimitException {
+        throwIfRejected(tryTransferOnce(transactionId, fromAccountId, toAccountId, amountCents), "Transfer",
+                fromAccountId, toAccountId);
+    }
+
+    // Identifies what a transaction ID was used for. A different transaction that hashes
+    // the same would be taken for a retry, which at 64 bits is not a practical concern.
+    private static long paramsHash(byte kind, long accountId, long otherAccountId, long amountCents) {
+        long h = kind;
+        h = (h ^ accountId) * 0x9E3779B97F4A7C15L;
+        h = (h ^ otherAccountId) * 0x9E3779B97F4A7C15L;
+        h = (h ^ amountCents) * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+
+    // A transaction that threw has no effect, even when the journal failed after the
+    // balance changed (see revert), so it may be retried under the same ID.
+    private void settle(long transactionId, TransactionResult result) {
+        if (result != null) {
+            dedup.complete(transactionId, result);
+        } else {
+            dedup.release(transactionId);
+        }
+    }
+
+    // Throws the exception the throwing API reports for the rejection.
+    private void throwIfRejected(TransactionResult result, String operation, long accountId, long otherAccountId)
+            throws AccountNotFoundException, InvalidAmountException, InsufficientFundsException,
+            BalanceLimitException {
+        if (result.isApplied()) {
+            return;
+        }
+        String message = describeRejection(result, operation, accountId, otherAccountId);
+        switch (result) {
+            case ACCOUNT_NOT_FOUND:
+                throw new AccountNotFoundException(message);
+            case NEGATIVE_AMOUNT:
+            case DEPOSIT_OUT_OF_RANGE:
+                throw new InvalidAmountException(message);
+            case INSUFFICIENT_FUNDS:
+                throw new InsufficientFundsException(message);
+            case BALANCE_TOO_LOW:
+            case BALANCE_TOO_HIGH:
+                throw new BalanceLimitException(message);
+            default:
+                throw new IllegalArgumentException(message);
+        }
+    }
+
+    /**
+     * Formats the message for a result from one of the try* methods. For transfers,
+     * {@code accountId} is the source and {@code otherAccountId} the destination.
+     */
+    public String describeRejection(TransactionResult result, String operation, long accountId,
+            long otherAccountId) {
+        Account account = accounts.get(accountId);
+        if (result == TransactionResult.ACCOUNT_NOT_FOUND && account != null) {
+            return result.message(operation, otherAccountId, 0);
+        }
+        return result.message(operation, accountId, account == null ? 0 : account.getBalanceCents());
+    }
+
+    /**
+     * Waits until every journaled operation so far is on disk. Returns at once when the
+     * bank has no journal.
+     */
+    public void awaitDurable() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.awaitDurable(journal.getLastSequence());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes a snapshot of every account without pausing transactions. The journal is
+     * made durable up to the snapshot's starting point before the snapshot replaces the
+     * previous one.
+     */
+    public AccountSnapshot writeSnapshot() throws IOException {
+        if (journal == null || snapshotPath == null) {
+            throw new IllegalStateException("Snapshots need a journal and a snapshot path");
+        }
+
+        synchronized (snapshotLock) {
+            long position;
+            long sequence;
+            synchronized (journal) {
+                position = journal.getPosition();
+                sequence = journal.getLastSequence();
+            }
+            return AccountSnapshot.write(snapshotPath, accounts, position, sequence, journal::sync);
+        }
+    }
+
+    /**
+     * Hands every balance to a {@link ShardedTransactionEngine} with the given number of
+     * shards. Until the engine is shut down, transactions must be submitted to it; the
+     * bank's own deposit, withdrawal and transfer methods throw IllegalStateException,
+     * and balance reads, snapshots and analytics are not synchronized with the shards.
+     * Only an in-memory bank can be sharded, because the engine keeps no journal.
+     *
+     * Transactions already running are waited for. Each one checks whether the bank is
+     * sharded with its accounts locked, before changing anything, so taking every
+     * account's lock once after setting the flag is enough: a transaction that missed
+     * the flag has finished by the time its lock is free, and any later one sees it.
+     */
+    public synchronized ShardedTransactionEngine startShardedEngine(int shards) {
+        if (journal != null) {
+            throw new IllegalStateException("A journaled bank cannot be sharded");
+        }
+        if (sharded) {
+            throw new IllegalStateException("A sharded engine is already running");
+        }
+        if (shards < 1) {
+            throw new IllegalArgumentException("Shard count must be at least 1");
+        }
+        sharded = true;
+        for (Account account : accounts) {
+            synchronized (account.lock()) {
+                // Waits out a transaction that checked the flag before it was set.
+            }
+        }
+        shardedEngine = new ShardedTransactionEngine(this, shards);
+        return shardedEngine;
+    }
+
+    synchronized void shardedEngineStopped(ShardedTransactionEngine engine) {
+        if (shardedEngine == engine) {
+            shardedEngine = null;
+            sharded = false;
+        }
+    }
+
+    // Unmetered store lookup for the sharded engine.
+    Account getAccount(long accountId) {
+        return accounts.get(accountId);
+    }
+
+    /**
+     * Writes a snapshot every {@code intervalMillis} on a background thread.
+     */
+    public synchronized void startSnapshots(long intervalMillis) {
+        if (snapshotScheduler != null) {
+            return;
+        }
+        snapshotScheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "account-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                writeSnapshot();
+            } catch (Exception e) {
+                System.out.println("Error writing snapshot: " + e.getMessage());
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops background snapshots and flushes and closes the journal, if there is one.
+     */
+    public void close() throws IOException {
+        metrics.stopDump();
+        synchronized (this) {
+            if (snapshotScheduler != null) {
+                snapshotScheduler.shutdownNow();
+                snapshotScheduler = null;
+            }
+        }
+        if (journal != null) {
+            synchronized (snapshotLock) {
+                journal.close();
+            }
+        }
+    }
+
+    /**
+     * Adds a new account to the store and the holder index and journals its creation.
+     * Its ID must come from {@code nextAccountId} unless the bank is still being
+     * constructed, so no other thread can be adding the same ID. Returns the stored
+     * account, which for some stores is a view rather than {@code account} itself, or
+     * null if the ID is already taken.
+     *
+     * The account is indexed last, once it is journaled and stored, so an account that
+     * failed to open is never found by a holder search.
+     */
+    private Account addAccount(Account account) {
+        long accountId = account.getAccountId();
+        if (accounts.get(accountId) != null) {
+            return null;
+        }
+        if (journal == null) {
+            accounts.add(account);
+        } else {
+            TransactionJournal.checkHolder(account.getAccountHolder());
+            // Under the journal's lock, writing the create record and publishing the
+            // account are one step for writeSnapshot, and no other record for the
+            // account can come before the create.
+            synchronized (journal) {
+                try {
+                    account.setJournalSequence(journal.appendCreate(accountId, account.getAccountHolder(),
+                            account.getBalanceCents()));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                accounts.add(account);
+            }
+        }
+        // Index the stored view: a rename made through it before this point changes
+        // the name indexed here.
+        Account stored = accounts.get(accountId);
+        holderIndex.add(stored);
+        return stored;
+    }
+
+    // Batch form of addAccount for accounts with freshly reserved IDs.
+    private void addAccounts(List<Account> batch) {
+        if (journal == null) {
+            accounts.addAll(batch);
+        } else {
+            // Checked first, so the batch is never journaled only in part.
+            for (Account account : batch) {
+                TransactionJournal.checkHolder(account.getAccountHolder());
+            }
+            synchronized (journal) {
+                try {
+                    for (Account account : batch) {
+                        account.setJournalSequence(journal.appendCreate(account.getAccountId(),
+                                account.getAccountHolder(), account.getBalanceCents()));
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                accounts.addAll(batch);
+            }
+        }
+        List<Account> stored = new ArrayList<>(batch.size());
+        for (Account account : batch) {
+            stored.add(accounts.get(account.getAccountId()));
+        }
+        holderIndex.addAll(stored);
+    }
+
+    // Called with the account locked, before its balance changes, so a running
+    // analytics capture can keep the balance it had when the capture started.
+    private void preserve(Account account) {
+        BalanceCapture current = capture;
+        if (current != null) {
+            current.preserve(account);
+        }
+    }
+
+    // Reads the capture once, so a transfer falls wholly before or after it.
+    private void preserve(Account fromAccount, Account toAccount) {
+        BalanceCapture current = capture;
+        if (current != null) {
+            current.preserve(fromAccount);
+            current.preserve(toAccount);
+        }
+    }
+
+    // The journal methods run while the caller holds the account locks, so records for
+    // any one account are written in the order the operations were applied.
+
+    // Journals a change made with the accounts locked, then adds it to the history. If
+    // the journal cannot take the record, the change is taken back before the error is
+    // thrown, so memory never holds a change the journal lacks.
+    private void recordDeposit(Account account, long amountCents) {
+        if (journal != null) {
+            try {
+                account.setJournalSequence(journal.appendDeposit(account.getAccountId(), amountCents));
+            } catch (IOException | RuntimeException e) {
+                throw revert(e, account, -amountCents);
+            }
+        }
+        history.record(account.getAccountId(), TransactionHistory.DEPOSIT, amountCents,
+                TransactionHistory.NO_ACCOUNT, System.currentTimeMillis());
+    }
+
+    private void recordWithdrawal(Account account, long amountCents) {
+        if (journal != null) {
+            try {
+                account.setJournalSequence(journal.appendWithdrawal(account.getAccountId(), amountCents));
+            } catch (IOException | RuntimeException e) {
+                throw revert(e, account, amountCents);
+            }
+        }
+        history.record(account.getAccountId(), TransactionHistory.WITHDRAWAL, amountCents,
+                TransactionHistory.NO_ACCOUNT, System.currentTimeMillis());
+    }
+
+    private void recordTransfer(Account fromAccount, Account toAccount, long amountCents) {
+        if (journal != null) {
+            try {
+                long sequence = journal.appendTransfer(fromAccount.getAccountId(), toAccount.getAccountId(),
+                        amountCents);
+                fromAccount.setJournalSequence(sequence);
+                toAccount.setJournalSequence(sequence);
+            } catch (IOException | RuntimeException e) {
+                revert(e, fromAccount, amountCents);
+                throw revert(e, toAccount, -amountCents);
+            }
+        }
+        long now = System.currentTimeMillis();
+        history.record(fromAccount.getAccountId(), TransactionHistory.TRANSFER_OUT, amountCents,
+                toAccount.getAccountId(), now);
+        history.record(toAccount.getAccountId(), TransactionHistory.TRANSFER_IN, amountCents,
+                fromAccount.getAccountId(), now);
+    }
+
+    // Takes back part of a change the journal did not record and returns the error to
+    // throw. Called with the account locked.
+    private static RuntimeException revert(Exception e, Account account, long deltaCents) {
+        account.writeBalanceCents(account.readBalanceCents() + deltaCents);
+        return e instanceof IOException ? new UncheckedIOException((IOException) e) : (RuntimeException) e;
+    }
+
+    // Called with the transaction's accounts locked; see startShardedEngine.
+    private void checkNotSharded() {
+        if (sharded) {
+            throw new IllegalStateException("Balances are owned by the sharded engine; submit transactions to it");
+        }
+    }
+
+    private Account findAccount(long accountId) throws AccountNotFoundException {
+        return findAccount(accountId, metrics.start());
+    }
+
+    private Account findAccount(long accountId, long operationStart) throws AccountNotFoundException {
+        return requireFound(lookup(accountId, operationStart), accountId);
+    }
+
+    // Uncounted lookup, for a check before an operation or a read after one, so that
+    // the operation's own lookup is the only one in the metrics.
+    private Account checkAccount(long accountId) throws AccountNotFoundException {
+        return requireFound(accounts.get(accountId), accountId);
+    }
+
+    private static Account requireFound(Account account, long accountId) throws AccountNotFoundException {
+        if (account != null) {
+            return account;
+        }
+        throw new AccountNotFoundException("Account with ID " + accountId + " not found.");
+    }
+
+    // Store lookup for an operation, counted as FIND_ACCOUNT and timed when the operation is.
+    private Account lookup(long accountId, long operationStart) {
+        long start = metrics.startWithin(operationStart);
+        Account account = accounts.get(accountId);
+        metrics.record(BankMetrics.Operation.FIND_ACCOUNT,
+                account != null ? TransactionResult.APPLIED : TransactionResult.ACCOUNT_NOT_FOUND, start);
+        return account;
+    }
+
+    private long parseAmount(String amountStr) throws InvalidAmountException {
+        long cents = AmountParser.parse(amountStr);
+        if (cents == AmountParser.EMPTY) {
+            throw new InvalidAmountException("Amount cannot be empty.");
+        }
+        if (cents == AmountParser.INVALID) {
+            throw new InvalidAmountException("Invalid amount format. Use format like: 100.50");
+        }
+        return cents;
+    }
+
+    /**
+     * Rebuilds accounts from journal records. Records were only written for operations
+     * that succeeded, so they are re-applied without validation. Accounts loaded from a
+     * snapshot skip the records they already include.
+     */
+    private class JournalReplayer implements TransactionJournal.Replayer {
+        @Override
+        public void created(long sequence, long accountId, String accountHolder, long balanceCents)
+                throws Exception {
+            if (accounts.get(accountId) != null) {
+                return;
+            }
+            Account account = Account.ofCents(accountId, accountHolder, balanceCents);
+            account.setJournalSequence(sequence);
+            accounts.add(account);
+            nextAccountId.accumulateAndGet(accountId + 1, Math::max);
+        }
+
+        @Override
+        public void deposited(long sequence, long accountId, long amountCents) throws Exception {
+            replayTarget(accountId).replay(amountCents, sequence);
+        }
+
+        @Override
+        public void withdrew(long sequence, long accountId, long amountCents) throws Exception {
+            replayTarget(accountId).replay(-amountCents, sequence);
+        }
+
+        @Override
+        public void transferred(long sequence, long fromAccountId, long toAccountId, long amountCents)
+                throws Exception {
+            replayTarget(fromAccountId).replay(-amountCents, sequence);
+            replayTarget(toAccountId).replay(amountCents, sequence);
+        }
+
+        // Straight from the store, so recovery does not show up in the lookup metrics.
+        private Account replayTarget(long accountId) throws AccountNotFoundException {
+            Account account = accounts.get(accountId);
+            if (account != null) {
+                return account;
+            }
+            throw new AccountNotFoundException("Account with ID " + accountId + " not found.");
+        }
+    }
+
+    public void run() {
+        System.out.println("Welcome to the Bank Management System!");
+
+        while (true) {
+            try {
+                System.out.println();
+                displayMenu();
+
+                String choice = scanner.nextLine().trim();
+
+                switch (choice) {
+                    case "1":
+                        System.out.println();
+                        System.out.println("Option: 1");
+                        displayAccountList();
+                        break;
+                    case "2":
+                        System.out.println();
+                        System.out.println("Option: 2");
+                        createAccount();
+                        break;
+                    case "3":
+                        System.out.println();
+                        System.out.println("Option: 3");
+                        depositToAccount();
+                        break;
+                    case "4":
+                        System.out.println();
+                        System.out.println("Option: 4");
+                        withdrawFromAccount();
+                        break;
+                    case "5":
+                        System.out.println();
+                        System.out.println("Option: 5");
+                        transferBetweenAccounts();
+                        break;
+                    case "6":
+                        close();
+                        System.out.println("Thank you for using the Bank Management System!");
+                        return;
+                    default:
+                        System.out.println("Invalid option. Please choose 1-6.");
+                }
+            } catch (Exception e) {
+                System.out.println("An unexpected error occurred: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,276 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Replays a CSV file of transactions against a {@link BankManagement}.
+ *
+ * Each line is one of:
+ * <pre>
+ * D,accountId,amount
+ * W,accountId,amount
+ * T,fromAccountId,toAccountId,amount
+ * </pre>
+ * Amounts are read by {@link AmountParser}; a '$' is allowed but digit-grouping
+ * commas are not, since the comma separates fields. Blank lines and lines starting with
+ * '#' are skipped. The file is read through a reused direct buffer and each record is
+ * parsed straight from the bytes, so no String is created for a well-formed line.
+ * Records are parsed into primitive columns and applied a batch at a time; every
+ * rejected line is written to the reject report as "lineNumber,reason". When the bank
+ * is journaled, each batch waits for a single group commit rather than one per record.
+ */
+class BatchTransactionProcessor {
+    private static final int DEFAULT_BATCH_SIZE = 4096;
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+
+    private static final byte DEPOSIT = 'D';
+    private static final byte WITHDRAW = 'W';
+    private static final byte TRANSFER = 'T';
+    private static final byte MALFORMED = 0;
+
+    private final BankManagement bank;
+    private final int batchSize;
+
+    private final byte[] ops;
+    private final long[] lineNumbers;
+    private final long[] accountIds;
+    private final long[] targetIds;
+    private final long[] amounts;
+    private int pending;
+
+    public BatchTransactionProcessor(BankManagement bank) {
+        this(bank, DEFAULT_BATCH_SIZE);
+    }
+
+    public BatchTransactionProcessor(BankManagement bank, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+        this.bank = bank;
+        this.batchSize = batchSize;
+        ops = new byte[batchSize];
+        lineNumbers = new long[batchSize];
+        accountIds = new long[batchSize];
+        targetIds = new long[batchSize];
+        amounts = new long[batchSize];
+    }
+
+    /**
+     * Applies every transaction in the file. Rejected lines go to {@code rejectReport},
+     * which may be null to discard them.
+     */
+    public Summary process(Path transactions, Path rejectReport) throws IOException {
+        if (rejectReport == null) {
+            return process(transactions, (Writer) null);
+        }
+        try (BufferedWriter rejects = Files.newBufferedWriter(rejectReport, StandardCharsets.UTF_8)) {
+            return process(transactions, rejects);
+        }
+    }
+
+    public Summary process(Path transactions, Writer rejects) throws IOException {
+        Summary summary = new Summary();
+        long start = System.nanoTime();
+        pending = 0;
+
+        try (FileChannel channel = FileChannel.open(transactions, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+            long lineNumber = 0;
+            boolean endOfFile = false;
+
+            while (!endOfFile) {
+                endOfFile = channel.read(buffer) < 0;
+                buffer.flip();
+
+                int lineStart = buffer.position();
+                int limit = buffer.limit();
+                for (int i = lineStart; i < limit; i++) {
+                    if (buffer.get(i) == '\n') {
+                        lineNumber++;
+                        addLine(buffer, lineStart, i, lineNumber, summary, rejects);
+                        lineStart = i + 1;
+                    }
+                }
+
+                if (endOfFile && lineStart < limit) {
+                    lineNumber++;
+                    addLine(buffer, lineStart, limit, lineNumber, summary, rejects);
+                    lineStart = limit;
+                }
+                if (!endOfFile && lineStart == 0 && limit == buffer.capacity()) {
+                    throw new IOException("Line " + (lineNumber + 1) + " is longer than "
+                            + READ_BUFFER_SIZE + " bytes");
+                }
+
+                buffer.position(lineStart);
+                buffer.compact();
+            }
+        }
+
+        applyPending(summary, rejects);
+        summary.elapsedNanos = System.nanoTime() - start;
+        return summary;
+    }
+
+    private void addLine(ByteBuffer buffer, int from, int to, long lineNumber, Summary summary, Writer rejects)
+            throws IOException {
+        if (to > from && buffer.get(to - 1) == '\r') {
+            to--;
+        }
+        if (to == from || buffer.get(from) == '#') {
+            return;
+        }
+
+        summary.records++;
+        int slot = pending++;
+        lineNumbers[slot] = lineNumber;
+        ops[slot] = parseRecord(buffer, from, to, slot);
+
+        if (pending == batchSize) {
+            applyPending(summary, rejects);
+        }
+    }
+
+    private byte parseRecord(ByteBuffer buffer, int from, int to, int slot) {
+        byte op = buffer.get(from);
+        if ((op != DEPOSIT && op != WITHDRAW && op != TRANSFER) || from + 1 >= to || buffer.get(from + 1) != ',') {
+            return MALFORMED;
+        }
+
+        int position = from + 2;
+        int comma = indexOf(buffer, position, to, (byte) ',');
+        long accountId = parseId(buffer, position, comma);
+        if (accountId < 0) {
+            return MALFORMED;
+        }
+        accountIds[slot] = accountId;
+        position = comma + 1;
+
+        if (op == TRANSFER) {
+            comma = indexOf(buffer, position, to, (byte) ',');
+            long targetId = parseId(buffer, position, comma);
+            if (targetId < 0) {
+                return MALFORMED;
+            }
+            targetIds[slot] = targetId;
+            position = comma + 1;
+        }
+
+        if (position > to || indexOf(buffer, position, to, (byte) ',') != to) {
+            return MALFORMED;
+        }
+        long cents = AmountParser.parse(buffer, position, to);
+        if (cents < 0) {
+            return MALFORMED;
+        }
+        amounts[slot] = cents;
+        return op;
+    }
+
+    private void applyPending(Summary summary, Writer rejects) throws IOException {
+        int count = pending;
+        pending = 0;
+        for (int i = 0; i < count; i++) {
+            String reason = apply(i);
+            if (reason == null) {
+                summary.applied++;
+            } else {
+                summary.rejected++;
+                if (rejects != null) {
+                    rejects.write(Long.toString(lineNumbers[i]));
+                    rejects.write(',');
+                    rejects.write(reason);
+                    rejects.write(System.lineSeparator());
+                }
+            }
+        }
+        bank.awaitDurable();
+    }
+
+    // Returns null when the transaction was applied, otherwise the reject reason.
+    // Rejections are plain result codes; a message is only built for rejected lines.
+    private String apply(int slot) {
+        TransactionResult result;
+        String operation;
+        switch (ops[slot]) {
+            case DEPOSIT:
+                result = bank.tryDeposit(accountIds[slot], amounts[slot]);
+                operation = "Deposit";
+                break;
+            case WITHDRAW:
+                result = bank.tryWithdraw(accountIds[slot], amounts[slot]);
+                operation = "Withdrawal";
+                break;
+            case TRANSFER:
+                result = bank.tryTransfer(accountIds[slot], targetIds[slot], amounts[slot]);
+                operation = "Transfer";
+                break;
+            default:
+                return "Malformed record.";
+        }
+        if (result.isApplied()) {
+            return null;
+        }
+        return bank.describeRejection(result, operation, accountIds[slot], targetIds[slot]);
+    }
+
+    private static int indexOf(ByteBuffer buffer, int from, int to, byte value) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == value) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    // Returns -1 if the field is not a non-empty run of digits that fits in a long.
+    private static long parseId(ByteBuffer buffer, int from, int to) {
+        if (from >= to || to - from > 18) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    static final class Summary {
+        long records;
+        long applied;
+        long rejected;
+        long elapsedNanos;
+
+        public long getRecords() {
+            return records;
+        }
+
+        public long getApplied() {
+            return applied;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        public double transactionsPerSecond() {
+            return elapsedNanos == 0 ? 0 : records * 1_000_000_000.0 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Records: %d, applied: %d, rejected: %d, %.0f transactions/sec",
+                    records, applied, rejected, transactionsPerSecond());
+        }
+    }
+}
@@ -0,0 +1,322 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Account store for very large banks that keeps account state off the heap in
+ * columns instead of one object per account.
+ *
+ * Account IDs, balances and journal sequences are stored in direct buffers, one
+ * column each, allocated in chunks as the store grows. Holder names are interned in a
+ * shared pool and each account keeps only the name's index, so accounts with the same
+ * holder name share one String. The heap holds only the ID index, the name pool and a
+ * fixed set of lock stripes; the garbage collector never has to trace per-account
+ * objects.
+ *
+ * {@link #get} and iteration hand out short-lived {@link Account} views that read and
+ * write the columns. Views of the same account share a lock stripe, so locking works
+ * as it does for ordinary accounts; two accounts may share a stripe as well.
+ * Accounts added to the store are copied in, so later changes must go through a view.
+ */
+class ColumnarAccountStore implements AccountStore {
+    private static final int CHUNK_SHIFT = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int LOCK_STRIPES = 4096;
+
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private final LongHashIndex index;
+    private final StampedLock lock = new StampedLock();
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final HolderPool holders = new HolderPool();
+    private volatile Chunk[] chunks = new Chunk[0];
+    private volatile int size;
+    private volatile HolderIndex holderIndex;
+
+    public ColumnarAccountStore() {
+        this(16);
+    }
+
+    public ColumnarAccountStore(int expectedSize) {
+        index = new LongHashIndex(expectedSize);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    @Override
+    public boolean add(Account account) {
+        long stamp = lock.writeLock();
+        try {
+            if (!append(account, size)) {
+                return false;
+            }
+            size++;
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public int addAll(List<Account> batch) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = size;
+            for (Account account : batch) {
+                if (append(account, slot)) {
+                    slot++;
+                }
+            }
+            int added = slot - size;
+            size = slot;
+            return added;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Copies the account into the slot under the write lock; the caller then publishes the size.
+    private boolean append(Account account, int slot) {
+        if (index.putIfAbsent(account.getAccountId(), slot) != LongHashIndex.MISSING) {
+            return false;
+        }
+        Chunk[] current = chunks;
+        if ((slot >>> CHUNK_SHIFT) == current.length) {
+            current = Arrays.copyOf(current, current.length + 1);
+            current[current.length - 1] = new Chunk();
+            chunks = current;
+        }
+
+        Chunk chunk = current[slot >>> CHUNK_SHIFT];
+        int offset = slot & CHUNK_MASK;
+        synchronized (locks[slot & (LOCK_STRIPES - 1)]) {
+            chunk.ids.putLong(offset << 3, account.getAccountId());
+            chunk.balances.putLong(offset << 3, account.getBalanceCents());
+            chunk.sequences.putLong(offset << 3, account.getJournalSequence());
+            INTS.setVolatile(chunk.holders, offset << 2, holders.intern(account.getAccountHolder()));
+        }
+        if (account.holderIndex() != null) {
+            holderIndex = account.holderIndex();
+        }
+        return true;
+    }
+
+    @Override
+    public Account get(long accountId) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            int slot = index.get(accountId);
+            if (lock.validate(stamp)) {
+                return slot == LongHashIndex.MISSING ? null : new ColumnarAccount(this, slot, accountId);
+            }
+        }
+
+        stamp = lock.readLock();
+        try {
+            int slot = index.get(accountId);
+            return slot == LongHashIndex.MISSING ? null : new ColumnarAccount(this, slot, accountId);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Account accountAt(int position) {
+        // Size first, then the chunks: any chunk array published after that size covers it.
+        int end = size;
+        Chunk[] current = chunks;
+        return position < end ? view(current, position) : null;
+    }
+
+    @Override
+    public Iterator<Account> iterator() {
+        int end = size;
+        Chunk[] snapshot = chunks;
+
+        return new Iterator<Account>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < end;
+            }
+
+            @Override
+            public Account next() {
+                if (next >= end) {
+                    throw new NoSuchElementException();
+                }
+                return view(snapshot, next++);
+            }
+        };
+    }
+
+    /**
+     * Sums the balance column directly, without creating views or taking locks. Like
+     * iteration, the result is not a point-in-time total while transfers are running.
+     */
+    @Override
+    public long totalBalanceCents() {
+        int end = size;
+        Chunk[] current = chunks;
+        long total = 0;
+        for (int c = 0; c < current.length && (c << CHUNK_SHIFT) < end; c++) {
+            ByteBuffer balances = current[c].balances;
+            int count = Math.min(CHUNK_SIZE, end - (c << CHUNK_SHIFT));
+            for (int i = 0; i < count; i++) {
+                total += balances.getLong(i << 3);
+            }
+        }
+        return total;
+    }
+
+    private ColumnarAccount view(Chunk[] current, int slot) {
+        return new ColumnarAccount(this, slot, current[slot >>> CHUNK_SHIFT].ids.getLong((slot & CHUNK_MASK) << 3));
+    }
+
+    private Chunk chunk(int slot) {
+        return chunks[slot >>> CHUNK_SHIFT];
+    }
+
+    /**
+     * One chunk of every column, off the heap.
+     */
+    private static class Chunk {
+        final ByteBuffer ids = column(Long.BYTES);
+        final ByteBuffer balances = column(Long.BYTES);
+        final ByteBuffer sequences = column(Long.BYTES);
+        final ByteBuffer holders = column(Integer.BYTES);
+
+        private static ByteBuffer column(int width) {
+            return ByteBuffer.allocateDirect(CHUNK_SIZE * width).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    /**
+     * Interned holder names. Names are appended and never removed, so a renamed
+     * account's old name stays in the pool.
+     */
+    private static class HolderPool {
+        private volatile String[] names = new String[16];
+        private int count;
+        // Open-addressing table of name index + 1; 0 marks an empty slot.
+        private int[] table = new int[32];
+
+        synchronized int intern(String name) {
+            int mask = table.length - 1;
+            int slot = name.hashCode() & mask;
+            while (table[slot] != 0) {
+                if (names[table[slot] - 1].equals(name)) {
+                    return table[slot] - 1;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            if (count == names.length) {
+                names = Arrays.copyOf(names, count << 1);
+            }
+            names[count] = name;
+            table[slot] = ++count;
+            if (count << 1 > table.length) {
+                rehash();
+            }
+            return count - 1;
+        }
+
+        // Callers read the name's index from a volatile column first, so names holds it.
+        String name(int nameIndex) {
+            return names[nameIndex];
+        }
+
+        private void rehash() {
+            int[] grown = new int[table.length << 1];
+            int mask = grown.length - 1;
+            for (int i = 0; i < count; i++) {
+                int slot = names[i].hashCode() & mask;
+                while (grown[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                grown[slot] = i + 1;
+            }
+            table = grown;
+        }
+    }
+
+    /**
+     * A short-lived view of one account's row. Balance and sequence are read and
+     * written under the row's lock stripe; the holder column is volatile.
+     */
+    private static final class ColumnarAccount extends Account {
+        private final ColumnarAccountStore store;
+        private final int slot;
+
+        ColumnarAccount(ColumnarAccountStore store, int slot, long accountId) {
+            super(accountId);
+            this.store = store;
+            this.slot = slot;
+        }
+
+        @Override
+        Object lock() {
+            return store.locks[slot & (LOCK_STRIPES - 1)];
+        }
+
+        @Override
+        long lockOrder() {
+            return slot & (LOCK_STRIPES - 1);
+        }
+
+        @Override
+        String readHolder() {
+            return store.holders.name((int) INTS.getVolatile(store.chunk(slot).holders, (slot & CHUNK_MASK) << 2));
+        }
+
+        @Override
+        void writeHolder(String accountHolder) {
+            INTS.setVolatile(store.chunk(slot).holders, (slot & CHUNK_MASK) << 2, store.holders.intern(accountHolder));
+        }
+
+        @Override
+        long readBalanceCents() {
+            return store.chunk(slot).balances.getLong((slot & CHUNK_MASK) << 3);
+        }
+
+        @Override
+        void writeBalanceCents(long balanceCents) {
+            store.chunk(slot).balances.putLong((slot & CHUNK_MASK) << 3, balanceCents);
+        }
+
+        @Override
+        long readJournalSequence() {
+            return store.chunk(slot).sequences.getLong((slot & CHUNK_MASK) << 3);
+        }
+
+        @Override
+        void writeJournalSequence(long journalSequence) {
+            store.chunk(slot).sequences.putLong((slot & CHUNK_MASK) << 3, journalSequence);
+        }
+
+        @Override
+        HolderIndex holderIndex() {
+            return store.holderIndex;
+        }
+
+        @Override
+        void setHolderIndex(HolderIndex holderIndex) {
+            store.holderIndex = holderIndex;
+        }
+    }
+}
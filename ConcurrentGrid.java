@@ -0,0 +1,380 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Grid that many threads can read and write at once. Cells are one byte each in one
+ * flat array, row after row, guarded by striped row locks: row i belongs to stripe
+ * i % stripes, and each stripe is a {@link StampedLock}.
+ *
+ * Writes to one row (a cell update, a row insert or clear) take that row's stripe, so
+ * writers on different stripes never wait for each other. Writes to a column or the
+ * whole grid take every stripe, in order, so they are atomic too. Reads are
+ * optimistic: a row is copied without locking and the copy is kept if no writer took
+ * the stripe meanwhile, otherwise it is read again under the read lock. Columns,
+ * {@link #isEmpty()} and {@link #snapshot()} validate every stripe the same way. So a
+ * reader never sees a half-written row or column, and never blocks writers on the
+ * fast path.
+ *
+ * {@link #displayGrid()} is consistent row by row, not as a whole; take a snapshot for
+ * a consistent frame. Changes for the renderer are recorded per row and column with
+ * atomic bit sets, so a single updated cell redraws its row, and {@link #getChanges()}
+ * should be called from one rendering thread.
+ */
+class ConcurrentGrid extends AbstractGrid {
+    private static final VarHandle BITS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final int MAX_STRIPES = 64;
+    private static final int OPTIMISTIC_TRIES = 2;
+
+    private final byte[] cells;
+    private final StampedLock[] stripes;
+    private final long[] changedRows;
+    private final long[] changedColumns;
+    private volatile boolean allChanged;
+
+    public ConcurrentGrid(int rows, int columns) {
+        super(rows, columns);
+        long size = (long) rows * columns;
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Grid too large for a concurrent grid: " + size + " cells");
+        }
+        cells = new byte[(int) size];
+        stripes = new StampedLock[Math.min(rows, MAX_STRIPES)];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new StampedLock();
+        }
+        changedRows = new long[(rows + 63) >>> 6];
+        changedColumns = new long[(columns + 63) >>> 6];
+    }
+
+    /**
+     * A copy of every cell as of one moment.
+     */
+    public ByteGrid snapshot() {
+        byte[] copy = new byte[cells.length];
+        long[] stamps = new long[stripes.length];
+        for (int tries = 0; tries < OPTIMISTIC_TRIES; tries++) {
+            if (tryOptimisticAll(stamps)) {
+                System.arraycopy(cells, 0, copy, 0, cells.length);
+                if (validateAll(stamps)) {
+                    return new ByteGrid(rows, columns, copy);
+                }
+            }
+        }
+        readLockAll(stamps);
+        try {
+            System.arraycopy(cells, 0, copy, 0, cells.length);
+        } finally {
+            unlockReadAll(stamps);
+        }
+        return new ByteGrid(rows, columns, copy);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        long[] stamps = new long[stripes.length];
+        for (int tries = 0; tries < OPTIMISTIC_TRIES; tries++) {
+            if (tryOptimisticAll(stamps)) {
+                boolean empty = allZero();
+                if (validateAll(stamps)) {
+                    return empty;
+                }
+            }
+        }
+        readLockAll(stamps);
+        try {
+            return allZero();
+        } finally {
+            unlockReadAll(stamps);
+        }
+    }
+
+    /**
+     * Drains the rows and columns changed since the last call into the changes the
+     * renderer reads.
+     */
+    @Override
+    public GridChanges getChanges() {
+        GridChanges changes = super.getChanges();
+        if (allChanged) {
+            allChanged = false;
+            changes.markAll();
+        }
+        for (int w = 0; w < changedRows.length; w++) {
+            if (changedRows[w] != 0) {
+                long bits = (long) BITS.getAndSet(changedRows, w, 0L);
+                for (; bits != 0; bits &= bits - 1) {
+                    changes.markRow((w << 6) + Long.numberOfTrailingZeros(bits));
+                }
+            }
+        }
+        for (int w = 0; w < changedColumns.length; w++) {
+            if (changedColumns[w] != 0) {
+                long bits = (long) BITS.getAndSet(changedColumns, w, 0L);
+                for (; bits != 0; bits &= bits - 1) {
+                    changes.markColumn((w << 6) + Long.numberOfTrailingZeros(bits));
+                }
+            }
+        }
+        return changes;
+    }
+
+    @Override
+    int get(int row, int column) {
+        StampedLock lock = stripeFor(row);
+        int at = row * columns + column;
+        long stamp = lock.tryOptimisticRead();
+        int value = cells[at];
+        if (lock.validate(stamp)) {
+            return value;
+        }
+        stamp = lock.readLock();
+        try {
+            return cells[at];
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    void set(int row, int column, int value) {
+        StampedLock lock = stripeFor(row);
+        long stamp = lock.writeLock();
+        try {
+            cells[row * columns + column] = (byte) value;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    void writeRow(int row, int[] values) {
+        StampedLock lock = stripeFor(row);
+        int base = row * columns;
+        long stamp = lock.writeLock();
+        try {
+            for (int i = 0; i < values.length; i++) {
+                cells[base + i] = (byte) values[i];
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    void readRow(int row, int[] into) {
+        StampedLock lock = stripeFor(row);
+        for (int tries = 0; tries < OPTIMISTIC_TRIES; tries++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                copyCells(row, into);
+                if (lock.validate(stamp)) {
+                    return;
+                }
+            }
+        }
+        long stamp = lock.readLock();
+        try {
+            copyCells(row, into);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    void clearRow(int row) {
+        StampedLock lock = stripeFor(row);
+        long stamp = lock.writeLock();
+        try {
+            Arrays.fill(cells, row * columns, (row + 1) * columns, (byte) 0);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    void writeColumn(int column, int[] values) {
+        long[] stamps = new long[stripes.length];
+        writeLockAll(stamps);
+        try {
+            for (int i = 0, at = column; i < values.length; i++, at += columns) {
+                cells[at] = (byte) values[i];
+            }
+        } finally {
+            unlockWriteAll(stamps);
+        }
+    }
+
+    @Override
+    void readColumn(int column, int[] into) {
+        long[] stamps = new long[stripes.length];
+        for (int tries = 0; tries < OPTIMISTIC_TRIES; tries++) {
+            if (tryOptimisticAll(stamps)) {
+                copyColumn(column, into);
+                if (validateAll(stamps)) {
+                    return;
+                }
+            }
+        }
+        readLockAll(stamps);
+        try {
+            copyColumn(column, into);
+        } finally {
+            unlockReadAll(stamps);
+        }
+    }
+
+    @Override
+    void clearColumn(int column) {
+        long[] stamps = new long[stripes.length];
+        writeLockAll(stamps);
+        try {
+            for (int at = column; at < cells.length; at += columns) {
+                cells[at] = 0;
+            }
+        } finally {
+            unlockWriteAll(stamps);
+        }
+    }
+
+    @Override
+    void clearCells() {
+        long[] stamps = new long[stripes.length];
+        writeLockAll(stamps);
+        try {
+            Arrays.fill(cells, (byte) 0);
+        } finally {
+            unlockWriteAll(stamps);
+        }
+    }
+
+    // The whole batch under every stripe, so readers see all of it or none of it.
+    @Override
+    void apply(int[] commands, int count) {
+        long[] stamps = new long[stripes.length];
+        writeLockAll(stamps);
+        try {
+            for (int at = 0, end = count * GridBatch.FIELDS; at < end; at += GridBatch.FIELDS) {
+                int row = commands[at + 1];
+                int column = commands[at + 2];
+                switch (commands[at]) {
+                    case GridBatch.UPDATE_CELL:
+                        cells[row * columns + column] = (byte) commands[at + 3];
+                        cellChanged(row, column);
+                        break;
+                    case GridBatch.CLEAR_ROW:
+                        Arrays.fill(cells, row * columns, (row + 1) * columns, (byte) 0);
+                        rowChanged(row);
+                        break;
+                    default:
+                        for (int i = column; i < cells.length; i += columns) {
+                            cells[i] = 0;
+                        }
+                        columnChanged(column);
+                }
+            }
+        } finally {
+            unlockWriteAll(stamps);
+        }
+    }
+
+    @Override
+    void rowChanged(int row) {
+        setBit(changedRows, row);
+    }
+
+    @Override
+    void columnChanged(int column) {
+        setBit(changedColumns, column);
+    }
+
+    @Override
+    void cellChanged(int row, int column) {
+        setBit(changedRows, row);
+    }
+
+    @Override
+    void allChanged() {
+        allChanged = true;
+    }
+
+    private StampedLock stripeFor(int row) {
+        return stripes[row % stripes.length];
+    }
+
+    // May read cells mid-write; callers validate or hold the lock.
+    private void copyCells(int row, int[] into) {
+        int base = row * columns;
+        for (int i = 0; i < columns; i++) {
+            into[i] = cells[base + i];
+        }
+    }
+
+    private void copyColumn(int column, int[] into) {
+        for (int i = 0, at = column; i < rows; i++, at += columns) {
+            into[i] = cells[at];
+        }
+    }
+
+    private boolean allZero() {
+        for (byte cell : cells) {
+            if (cell != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Stripes are always locked in index order, so whole-grid operations cannot deadlock.
+    private boolean tryOptimisticAll(long[] stamps) {
+        for (int i = 0; i < stripes.length; i++) {
+            if ((stamps[i] = stripes[i].tryOptimisticRead()) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean validateAll(long[] stamps) {
+        for (int i = 0; i < stripes.length; i++) {
+            if (!stripes[i].validate(stamps[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void readLockAll(long[] stamps) {
+        for (int i = 0; i < stripes.length; i++) {
+            stamps[i] = stripes[i].readLock();
+        }
+    }
+
+    private void unlockReadAll(long[] stamps) {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            stripes[i].unlockRead(stamps[i]);
+        }
+    }
+
+    private void writeLockAll(long[] stamps) {
+        for (int i = 0; i < stripes.length; i++) {
+            stamps[i] = stripes[i].writeLock();
+        }
+    }
+
+    private void unlockWriteAll(long[] stamps) {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            stripes[i].unlockWrite(stamps[i]);
+        }
+    }
+
+    // Reads first, so writes to a row already marked cost no atomic operation.
+    private static void setBit(long[] bits, int index) {
+        int w = index >>> 6;
+        long bit = 1L << index;
+        if (((long) BITS.getOpaque(bits, w) & bit) == 0) {
+            BITS.getAndBitwiseOr(bits, w, bit);
+        }
+    }
+}
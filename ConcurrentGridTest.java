@@ -0,0 +1,111 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stress test for torn reads in {@link ConcurrentGrid}. Writer threads fill whole rows
+ * with one value, or clear them, while reader threads copy rows and take snapshots;
+ * every row read must hold a single value. The same is then done with columns. A
+ * reader that saw part of one write and part of another would find two values.
+ *
+ * Usage: java ConcurrentGridTest [size] [millis per phase]
+ */
+public class ConcurrentGridTest {
+    private static final int WRITERS = 3;
+    private static final int READERS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        long millis = args.length > 1 ? Long.parseLong(args[1]) : 3000;
+
+        System.out.println("1. Row writes against row reads and snapshots");
+        tornReads(size, millis, true);
+
+        System.out.println("2. Column writes against column reads and snapshots");
+        tornReads(size, millis, false);
+
+        TestChecks.finish();
+    }
+
+    private static void tornReads(int size, long millis, boolean rows) throws InterruptedException {
+        ConcurrentGrid grid = new ConcurrentGrid(size, size);
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong reads = new AtomicLong();
+        AtomicLong writes = new AtomicLong();
+        AtomicLong torn = new AtomicLong();
+
+        List<Thread> threads = new ArrayList<>(WRITERS + READERS);
+        for (int t = 0; t < WRITERS; t++) {
+            Random random = new Random(t);
+            threads.add(new Thread(() -> {
+                int[] values = new int[size];
+                while (!stop.get()) {
+                    Arrays.fill(values, 1 + random.nextInt(9));
+                    int line = random.nextInt(size);
+                    boolean clear = random.nextInt(20) == 0;
+                    if (rows) {
+                        if (clear) {
+                            grid.clearAtRow(line);
+                        } else {
+                            grid.insertAtRow(line, values);
+                        }
+                    } else if (clear) {
+                        grid.clearAtColumn(line);
+                    } else {
+                        grid.insertAtColumn(line, values);
+                    }
+                    writes.incrementAndGet();
+                }
+            }));
+        }
+        for (int t = 0; t < READERS; t++) {
+            Random random = new Random(100 + t);
+            threads.add(new Thread(() -> {
+                int[] into = new int[size];
+                while (!stop.get()) {
+                    if (random.nextInt(100) < 2) {
+                        ByteGrid snapshot = grid.snapshot();
+                        for (int i = 0; i < size; i++) {
+                            if (!uniform(rows ? snapshot.getRow(i) : snapshot.getColumn(i))) {
+                                torn.incrementAndGet();
+                            }
+                        }
+                    } else if (rows) {
+                        if (!uniform(grid.getRow(random.nextInt(size)))) {
+                            torn.incrementAndGet();
+                        }
+                        grid.copyRow(random.nextInt(size), into);
+                        if (!uniform(into)) {
+                            torn.incrementAndGet();
+                        }
+                    } else if (!uniform(grid.getColumn(random.nextInt(size)))) {
+                        torn.incrementAndGet();
+                    }
+                    reads.incrementAndGet();
+                }
+            }));
+        }
+
+        threads.forEach(Thread::start);
+        Thread.sleep(millis);
+        stop.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        System.out.printf("   %d reads, %d writes on a %dx%d grid%n", reads.get(), writes.get(), size, size);
+        TestChecks.check(rows ? "torn rows" : "torn columns", 0, torn.get());
+    }
+
+    private static boolean uniform(int[] values) {
+        for (int value : values) {
+            if (value != values[0]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,221 @@
+import java.util.Arrays;
+
+/**
+ * A batch of grid commands, applied all or nothing by {@link GridLayout#applyBatch}.
+ *
+ * Commands are packed four ints each into one int[]: operation, row, column, value.
+ * Fields an operation does not use should be 0. The whole batch is validated in one
+ * branch-free pass before anything is applied; only a batch that fails is scanned
+ * again to say which commands are wrong and why. Nothing is printed: problems come back
+ * as a {@link Result}.
+ */
+class GridBatch {
+    static final int UPDATE_CELL = 0;
+    static final int CLEAR_ROW = 1;
+    static final int CLEAR_COLUMN = 2;
+
+    static final int FIELDS = 4;
+    private static final int OPERATIONS = 3;
+    private static final int MIN_COMMANDS = 16;
+
+    private int[] commands;
+    private int size;
+
+    public GridBatch() {
+        this(MIN_COMMANDS);
+    }
+
+    public GridBatch(int expectedCommands) {
+        commands = new int[Math.max(MIN_COMMANDS, expectedCommands) * FIELDS];
+    }
+
+    private GridBatch(int[] commands, int size) {
+        this.commands = commands;
+        this.size = size;
+    }
+
+    /**
+     * A batch over commands already packed four ints each. The array is used as is,
+     * not copied.
+     */
+    public static GridBatch wrap(int[] commands) {
+        if (commands.length % FIELDS != 0) {
+            throw new IllegalArgumentException("Commands must be packed " + FIELDS + " ints each, got "
+                    + commands.length + " ints");
+        }
+        return new GridBatch(commands, commands.length / FIELDS);
+    }
+
+    public GridBatch updateCell(int row, int column, int value) {
+        return add(UPDATE_CELL, row, column, value);
+    }
+
+    public GridBatch clearRow(int row) {
+        return add(CLEAR_ROW, row, 0, 0);
+    }
+
+    public GridBatch clearColumn(int column) {
+        return add(CLEAR_COLUMN, 0, column, 0);
+    }
+
+    public GridBatch add(int operation, int row, int column, int value) {
+        int at = size * FIELDS;
+        if (at == commands.length) {
+            commands = Arrays.copyOf(commands, commands.length << 1);
+        }
+        commands[at] = operation;
+        commands[at + 1] = row;
+        commands[at + 2] = column;
+        commands[at + 3] = value;
+        size++;
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    // The packed commands; only the first size() * FIELDS ints are in use.
+    int[] commands() {
+        return commands;
+    }
+
+    /**
+     * Checks every command against a grid of the given size. Returns {@link Result#APPLIED}
+     * when all are valid.
+     */
+    Result validate(int rows, int columns) {
+        int[] c = commands;
+        int end = size * FIELDS;
+        // A field f is in [0, n) exactly when f and n - 1 - f are both non-negative, so
+        // OR-ing those together over the batch leaves the sign bit clear only if every
+        // field of every command is in range.
+        int bad = 0;
+        for (int i = 0; i < end; i += FIELDS) {
+            bad |= c[i] | (OPERATIONS - 1 - c[i])
+                    | c[i + 1] | (rows - 1 - c[i + 1])
+                    | c[i + 2] | (columns - 1 - c[i + 2])
+                    | c[i + 3] | (AbstractGrid.MAX_VALUE - c[i + 3]);
+        }
+        return bad >= 0 ? Result.APPLIED : errors(rows, columns);
+    }
+
+    private Result errors(int rows, int columns) {
+        int[] indexes = new int[MIN_COMMANDS];
+        Error[] errors = new Error[MIN_COMMANDS];
+        int count = 0;
+        for (int k = 0; k < size; k++) {
+            Error error = check(k, rows, columns);
+            if (error != null) {
+                if (count == indexes.length) {
+                    indexes = Arrays.copyOf(indexes, count << 1);
+                    errors = Arrays.copyOf(errors, count << 1);
+                }
+                indexes[count] = k;
+                errors[count++] = error;
+            }
+        }
+        return new Result(Arrays.copyOf(indexes, count), Arrays.copyOf(errors, count), rows, columns);
+    }
+
+    private Error check(int k, int rows, int columns) {
+        int at = k * FIELDS;
+        if (commands[at] < 0 || commands[at] >= OPERATIONS) {
+            return Error.UNKNOWN_OPERATION;
+        }
+        if (commands[at + 1] < 0 || commands[at + 1] >= rows) {
+            return Error.ROW_OUT_OF_RANGE;
+        }
+        if (commands[at + 2] < 0 || commands[at + 2] >= columns) {
+            return Error.COLUMN_OUT_OF_RANGE;
+        }
+        if (commands[at + 3] < 0 || commands[at + 3] > AbstractGrid.MAX_VALUE) {
+            return Error.VALUE_OUT_OF_RANGE;
+        }
+        return null;
+    }
+
+    /**
+     * Why a command was rejected. A command with several problems reports the first,
+     * in the order listed here.
+     */
+    enum Error {
+        UNKNOWN_OPERATION,
+        ROW_OUT_OF_RANGE,
+        COLUMN_OUT_OF_RANGE,
+        VALUE_OUT_OF_RANGE;
+
+        public String message(int rows, int columns) {
+            switch (this) {
+                case UNKNOWN_OPERATION:
+                    return "Unknown operation";
+                case ROW_OUT_OF_RANGE:
+                    return "Row number must be between 0 and " + (rows - 1);
+                case COLUMN_OUT_OF_RANGE:
+                    return "Column number must be between 0 and " + (columns - 1);
+                case VALUE_OUT_OF_RANGE:
+                    return "Value must be between 0 and 9.";
+                default:
+                    throw new AssertionError(this);
+            }
+        }
+    }
+
+    /**
+     * Outcome of a batch: applied in full, or rejected with every invalid command listed
+     * in batch order.
+     */
+    static final class Result {
+        static final Result APPLIED = new Result(new int[0], new Error[0], 0, 0);
+
+        private final int[] commandIndexes;
+        private final Error[] errors;
+        private final int rows;
+        private final int columns;
+
+        Result(int[] commandIndexes, Error[] errors, int rows, int columns) {
+            this.commandIndexes = commandIndexes;
+            this.errors = errors;
+            this.rows = rows;
+            this.columns = columns;
+        }
+
+        public boolean isApplied() {
+            return errors.length == 0;
+        }
+
+        public int getErrorCount() {
+            return errors.length;
+        }
+
+        /**
+         * Position in the batch of the i-th invalid command.
+         */
+        public int getCommandIndex(int i) {
+            return commandIndexes[i];
+        }
+
+        public Error getError(int i) {
+            return errors[i];
+        }
+
+        @Override
+        public String toString() {
+            if (isApplied()) {
+                return "Batch applied.";
+            }
+            StringBuilder sb = new StringBuilder(32 + errors.length * 48);
+            sb.append("Batch rejected, ").append(errors.length).append(" invalid command")
+                    .append(errors.length == 1 ? "" : "s").append(':');
+            for (int i = 0; i < errors.length; i++) {
+                sb.append("\n  Command ").append(commandIndexes[i]).append(": ")
+                        .append(errors[i].message(rows, columns));
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+import java.util.Arrays;
+
+/**
+ * What has changed in a grid since its changes were last drawn: whole rows, whole
+ * columns, single cells, or everything. Rows and columns are bit sets and cells a
+ * list, so marking is cheap enough for every write to pay for. Past 65536 single
+ * cells, further cells mark their whole row instead.
+ */
+final class GridChanges {
+    private static final int MAX_CELLS = 1 << 16;
+
+    private final long[] rowBits;
+    private final long[] columnBits;
+    private long[] cells = new long[16];
+    private int cellCount;
+    private boolean rowsChanged;
+    private boolean columnsChanged;
+    private boolean all;
+
+    GridChanges(int rows, int columns) {
+        rowBits = new long[(rows + 63) >>> 6];
+        columnBits = new long[(columns + 63) >>> 6];
+    }
+
+    void markCell(int row, int column) {
+        if (all || isRowChanged(row)) {
+            return;
+        }
+        if (cellCount == MAX_CELLS) {
+            markRow(row);
+            return;
+        }
+        if (cellCount == cells.length) {
+            cells = Arrays.copyOf(cells, cellCount << 1);
+        }
+        cells[cellCount++] = (long) row << 32 | column;
+    }
+
+    void markRow(int row) {
+        rowBits[row >>> 6] |= 1L << row;
+        rowsChanged = true;
+    }
+
+    void markColumn(int column) {
+        columnBits[column >>> 6] |= 1L << column;
+        columnsChanged = true;
+    }
+
+    void markAll() {
+        all = true;
+    }
+
+    boolean allChanged() {
+        return all;
+    }
+
+    boolean isEmpty() {
+        return !all && !rowsChanged && !columnsChanged && cellCount == 0;
+    }
+
+    boolean isRowChanged(int row) {
+        return (rowBits[row >>> 6] & 1L << row) != 0;
+    }
+
+    boolean isColumnChanged(int column) {
+        return (columnBits[column >>> 6] & 1L << column) != 0;
+    }
+
+    /**
+     * The first changed row at or after {@code from}, or -1.
+     */
+    int nextChangedRow(int from) {
+        return nextSetBit(rowBits, from);
+    }
+
+    /**
+     * The first changed column at or after {@code from}, or -1.
+     */
+    int nextChangedColumn(int from) {
+        return nextSetBit(columnBits, from);
+    }
+
+    int changedRowCount() {
+        return bitCount(rowBits, rowsChanged);
+    }
+
+    int changedColumnCount() {
+        return bitCount(columnBits, columnsChanged);
+    }
+
+    int cellCount() {
+        return cellCount;
+    }
+
+    int cellRow(int k) {
+        return (int) (cells[k] >>> 32);
+    }
+
+    int cellColumn(int k) {
+        return (int) cells[k];
+    }
+
+    void reset() {
+        if (rowsChanged) {
+            Arrays.fill(rowBits, 0);
+            rowsChanged = false;
+        }
+        if (columnsChanged) {
+            Arrays.fill(columnBits, 0);
+            columnsChanged = false;
+        }
+        cellCount = 0;
+        all = false;
+    }
+
+    private static int bitCount(long[] bits, boolean any) {
+        int count = 0;
+        if (any) {
+            for (long word : bits) {
+                count += Long.bitCount(word);
+            }
+        }
+        return count;
+    }
+
+    private static int nextSetBit(long[] bits, int from) {
+        int word = from >>> 6;
+        if (word >= bits.length) {
+            return -1;
+        }
+        long w = bits[word] & -1L << from;
+        while (true) {
+            if (w != 0) {
+                return (word << 6) + Long.numberOfTrailingZeros(w);
+            }
+            if (++word == bits.length) {
+                return -1;
+            }
+            w = bits[word];
+        }
+    }
+}
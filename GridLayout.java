@@ -0,0 +1,53 @@
+interface GridLayout {
+    void insertAtRow(int rowNumber, int[] values);
+
+    void insertAtColumn(int columnNumber, int[] values);
+
+    void clearAtRow(int rowNumber);
+
+    void clearAtColumn(int columnNumber);
+
+    void updateCell(int rowNumber, int columnNumber, int value);
+
+    /**
+     * Applies every command in the batch, or none of them if any is invalid. Prints
+     * nothing; the result lists the invalid commands.
+     */
+    GridBatch.Result applyBatch(GridBatch batch);
+
+    void displayGrid();
+
+    void clear();
+
+    int getRowCount();
+
+    int getColumnCount();
+
+    /**
+     * Returns the value of a cell, or -1 for an invalid position.
+     */
+    int getCellValue(int rowNumber, int columnNumber);
+
+    /**
+     * Returns a copy of the row, or null for an invalid row number.
+     */
+    int[] getRow(int rowNumber);
+
+    /**
+     * Returns a copy of the column, or null for an invalid column number.
+     */
+    int[] getColumn(int columnNumber);
+
+    /**
+     * Copies the row into {@code into}, which must hold at least {@link #getColumnCount()}
+     * values. Does nothing for an invalid row number.
+     */
+    void copyRow(int rowNumber, int[] into);
+
+    /**
+     * What has changed since the changes were last drawn by a {@link GridRenderer}.
+     */
+    GridChanges getChanges();
+
+    boolean isEmpty();
+}
@@ -1,28 +1,64 @@
+/**
+ * Square grid of values 0-9. Sums, maxima and value counts of any row or column are
+ * answered by scanning that line, or, once {@link #enableCounts()} has been called,
+ * from counts of each value per row and column that every write keeps up to date.
+ */
+class GridManagement implements GridLayout {
+    private static final int VALUES = 10;
 
-interface GridLayout {
-    void insertAtRow(int rowNumber, int[] values);
-
-    void insertAtColumn(int columnNumber, int[] values);
-
-    void clearAtRow(int rowNumber);
+    private int[][] grid;
+    private final int GRID_SIZE;
+    private final GridChanges changes;
+    private GridRenderer renderer;
+    // Cells holding each value: rowCounts[row * VALUES + value], likewise for columns.
+    // Kept only once enableCounts has been called.
+    private boolean counting;
+    private int[] rowCounts;
+    private int[] columnCounts;
+    private int nonZeroCells;
 
-    void clearAtColumn(int columnNumber);
+    public GridManagement() {
+        this(7);
+    }
 
-    void updateCell(int rowNumber, int columnNumber, int value);
+    public GridManagement(int gridSize) {
+        if (gridSize < 1) {
+            throw new IllegalArgumentException("Grid size must be at least 1");
+        }
+        GRID_SIZE = gridSize;
+        grid = new int[GRID_SIZE][GRID_SIZE];
+        changes = new GridChanges(GRID_SIZE, GRID_SIZE);
 
-    void displayGrid();
+        clear();
+    }
 
-    void clear();
-}
+    /**
+     * Starts keeping, for every row and column, how many cells hold each value, so the
+     * sums, maxima and counts below take constant time instead of a scan of the line.
+     * Off by default: keeping them makes row writes several times slower, since every
+     * cell written moves a count in its column as well as its row.
+     */
+    public void enableCounts() {
+        if (!counting) {
+            rowCounts = new int[GRID_SIZE * VALUES];
+            columnCounts = new int[GRID_SIZE * VALUES];
+            counting = true;
+            recount();
+        }
+    }
 
-class GridManagement implements GridLayout {
-    private int[][] grid;
-    private final int GRID_SIZE = 7;
+    public boolean isCounting() {
+        return counting;
+    }
 
-    public GridManagement() {
-        grid = new int[GRID_SIZE][GRID_SIZE];
+    @Override
+    public int getRowCount() {
+        return GRID_SIZE;
+    }
 
-        clear();
+    @Override
+    public int getColumnCount() {
+        return GRID_SIZE;
     }
 
     @Override
@@ -39,12 +75,13 @@ class GridManagement implements GridLayout {
 
         for (int i = 0; i < values.length && i < GRID_SIZE; i++) {
             if (values[i] >= 0 && values[i] <= 9) {
-                grid[rowNumber][i] = values[i];
+                setCell(rowNumber, i, values[i]);
             } else {
                 System.out.println("Warning: Value " + values[i] + " is out of range (0-9). Setting to 0.");
-                grid[rowNumber][i] = 0;
+                setCell(rowNumber, i, 0);
             }
         }
+        changes.markRow(rowNumber);
     }
 
     @Override
@@ -61,12 +98,13 @@ class GridManagement implements GridLayout {
 
         for (int i = 0; i < values.length && i < GRID_SIZE; i++) {
             if (values[i] >= 0 && values[i] <= 9) {
-                grid[i][columnNumber] = values[i];
+                setCell(i, columnNumber, values[i]);
             } else {
                 System.out.println("Warning: Value " + values[i] + " is out of range (0-9). Setting to 0.");
-                grid[i][columnNumber] = 0;
+                setCell(i, columnNumber, 0);
             }
         }
+        changes.markColumn(columnNumber);
     }
 
     @Override
@@ -77,8 +115,9 @@ class GridManagement implements GridLayout {
         }
 
         for (int i = 0; i < GRID_SIZE; i++) {
-            grid[rowNumber][i] = 0;
+            setCell(rowNumber, i, 0);
         }
+        changes.markRow(rowNumber);
         System.out.println("Row " + rowNumber + " cleared.");
     }
 
@@ -90,8 +129,9 @@ class GridManagement implements GridLayout {
         }
 
         for (int i = 0; i < GRID_SIZE; i++) {
-            grid[i][columnNumber] = 0;
+            setCell(i, columnNumber, 0);
         }
+        changes.markColumn(columnNumber);
         System.out.println("Column " + columnNumber + " cleared.");
     }
 
@@ -107,35 +147,48 @@ class GridManagement implements GridLayout {
             return;
         }
 
-        grid[rowNumber][columnNumber] = value;
+        setCell(rowNumber, columnNumber, value);
+        changes.markCell(rowNumber, columnNumber);
         System.out.println("Cell [" + rowNumber + "][" + columnNumber + "] updated to " + value);
     }
 
     @Override
-    public void displayGrid() {
-        System.out.println(":::: The GRID ::::");
-        System.out.println();
-
-        System.out.print("  ");
-        for (int i = 0; i < GRID_SIZE; i++) {
-            System.out.print(i + " ");
+    public GridBatch.Result applyBatch(GridBatch batch) {
+        GridBatch.Result result = batch.validate(GRID_SIZE, GRID_SIZE);
+        if (!result.isApplied()) {
+            return result;
         }
-        System.out.println();
-
-        System.out.print("  ");
-        for (int i = 0; i < GRID_SIZE; i++) {
-            System.out.print("- ");
+        int[] commands = batch.commands();
+        for (int at = 0, end = batch.size() * GridBatch.FIELDS; at < end; at += GridBatch.FIELDS) {
+            int rowNumber = commands[at + 1];
+            int columnNumber = commands[at + 2];
+            switch (commands[at]) {
+                case GridBatch.UPDATE_CELL:
+                    setCell(rowNumber, columnNumber, commands[at + 3]);
+                    changes.markCell(rowNumber, columnNumber);
+                    break;
+                case GridBatch.CLEAR_ROW:
+                    for (int i = 0; i < GRID_SIZE; i++) {
+                        setCell(rowNumber, i, 0);
+                    }
+                    changes.markRow(rowNumber);
+                    break;
+                default:
+                    for (int i = 0; i < GRID_SIZE; i++) {
+                        setCell(i, columnNumber, 0);
+                    }
+                    changes.markColumn(columnNumber);
+            }
         }
-        System.out.println();
+        return result;
+    }
 
-        for (int i = 0; i < GRID_SIZE; i++) {
-            System.out.print(i + " - ");
-            for (int j = 0; j < GRID_SIZE; j++) {
-                System.out.print(grid[i][j] + " ");
-            }
-            System.out.println();
+    @Override
+    public void displayGrid() {
+        if (renderer == null) {
+            renderer = new GridRenderer(this);
         }
-        System.out.println();
+        renderer.print(System.out);
     }
 
     @Override
@@ -145,9 +198,14 @@ class GridManagement implements GridLayout {
                 grid[i][j] = 0;
             }
         }
+        if (counting) {
+            recount();
+        }
+        changes.markAll();
         System.out.println("Grid cleared.");
     }
 
+    @Override
     public int getCellValue(int rowNumber, int columnNumber) {
         if (rowNumber < 0 || rowNumber >= GRID_SIZE || columnNumber < 0 || columnNumber >= GRID_SIZE) {
             System.out.println("Error: Invalid cell position.");
@@ -159,6 +217,7 @@ class GridManagement implements GridLayout {
     /**
      * Get a copy of the entire row
      */
+    @Override
     public int[] getRow(int rowNumber) {
         if (rowNumber < 0 || rowNumber >= GRID_SIZE) {
             System.out.println("Error: Invalid row number.");
@@ -167,6 +226,7 @@ class GridManagement implements GridLayout {
         return grid[rowNumber].clone();
     }
 
+    @Override
     public int[] getColumn(int columnNumber) {
         if (columnNumber < 0 || columnNumber >= GRID_SIZE) {
             System.out.println("Error: Invalid column number.");
@@ -180,16 +240,38 @@ class GridManagement implements GridLayout {
         return column;
     }
 
+    @Override
+    public void copyRow(int rowNumber, int[] into) {
+        if (rowNumber < 0 || rowNumber >= GRID_SIZE) {
+            System.out.println("Error: Invalid row number.");
+            return;
+        }
+        System.arraycopy(grid[rowNumber], 0, into, 0, GRID_SIZE);
+    }
+
+    @Override
+    public GridChanges getChanges() {
+        return changes;
+    }
+
     public void fillRandomly() {
         for (int i = 0; i < GRID_SIZE; i++) {
             for (int j = 0; j < GRID_SIZE; j++) {
                 grid[i][j] = (int) (Math.random() * 10);
             }
         }
+        if (counting) {
+            recount();
+        }
+        changes.markAll();
         System.out.println("Grid filled with random values.");
     }
 
+    @Override
     public boolean isEmpty() {
+        if (counting) {
+            return nonZeroCells == 0;
+        }
         for (int i = 0; i < GRID_SIZE; i++) {
             for (int j = 0; j < GRID_SIZE; j++) {
                 if (grid[i][j] != 0) {
@@ -199,6 +281,191 @@ class GridManagement implements GridLayout {
         }
         return true;
     }
+
+    public int getNonZeroCount() {
+        if (counting) {
+            return nonZeroCells;
+        }
+        int nonZero = 0;
+        for (int i = 0; i < GRID_SIZE; i++) {
+            nonZero += GRID_SIZE - countRow(i)[0];
+        }
+        return nonZero;
+    }
+
+    /**
+     * Returns the sum of the row's values, or -1 for an invalid row number.
+     */
+    public int getRowSum(int rowNumber) {
+        if (!checkRow(rowNumber)) {
+            return -1;
+        }
+        return counting ? sum(rowCounts, rowNumber * VALUES) : sum(countRow(rowNumber), 0);
+    }
+
+    /**
+     * Returns the sum of the column's values, or -1 for an invalid column number.
+     */
+    public int getColumnSum(int columnNumber) {
+        if (!checkColumn(columnNumber)) {
+            return -1;
+        }
+        return counting ? sum(columnCounts, columnNumber * VALUES) : sum(countColumn(columnNumber), 0);
+    }
+
+    /**
+     * Returns the largest value in the row, or -1 for an invalid row number.
+     */
+    public int getRowMax(int rowNumber) {
+        if (!checkRow(rowNumber)) {
+            return -1;
+        }
+        return counting ? max(rowCounts, rowNumber * VALUES) : max(countRow(rowNumber), 0);
+    }
+
+    /**
+     * Returns the largest value in the column, or -1 for an invalid column number.
+     */
+    public int getColumnMax(int columnNumber) {
+        if (!checkColumn(columnNumber)) {
+            return -1;
+        }
+        return counting ? max(columnCounts, columnNumber * VALUES) : max(countColumn(columnNumber), 0);
+    }
+
+    /**
+     * Returns how many cells in the row are not 0, or -1 for an invalid row number.
+     */
+    public int getRowNonZeroCount(int rowNumber) {
+        if (!checkRow(rowNumber)) {
+            return -1;
+        }
+        return GRID_SIZE - (counting ? rowCounts[rowNumber * VALUES] : countRow(rowNumber)[0]);
+    }
+
+    /**
+     * Returns how many cells in the column are not 0, or -1 for an invalid column number.
+     */
+    public int getColumnNonZeroCount(int columnNumber) {
+        if (!checkColumn(columnNumber)) {
+            return -1;
+        }
+        return GRID_SIZE - (counting ? columnCounts[columnNumber * VALUES] : countColumn(columnNumber)[0]);
+    }
+
+    /**
+     * Returns how many cells in the row hold the value, or -1 for an invalid row number
+     * or value.
+     */
+    public int getRowValueCount(int rowNumber, int value) {
+        if (!checkRow(rowNumber) || !checkValue(value)) {
+            return -1;
+        }
+        return counting ? rowCounts[rowNumber * VALUES + value] : countRow(rowNumber)[value];
+    }
+
+    /**
+     * Returns how many cells in the column hold the value, or -1 for an invalid column
+     * number or value.
+     */
+    public int getColumnValueCount(int columnNumber, int value) {
+        if (!checkColumn(columnNumber) || !checkValue(value)) {
+            return -1;
+        }
+        return counting ? columnCounts[columnNumber * VALUES + value] : countColumn(columnNumber)[value];
+    }
+
+    // Every write of a checked value goes through here to keep the counts in step.
+    private void setCell(int rowNumber, int columnNumber, int value) {
+        if (!counting) {
+            grid[rowNumber][columnNumber] = value;
+            return;
+        }
+        // Branch-free, since whether a random write changes the cell is unpredictable.
+        int old = grid[rowNumber][columnNumber];
+        grid[rowNumber][columnNumber] = value;
+        rowCounts[rowNumber * VALUES + old]--;
+        rowCounts[rowNumber * VALUES + value]++;
+        columnCounts[columnNumber * VALUES + old]--;
+        columnCounts[columnNumber * VALUES + value]++;
+        nonZeroCells += (value == 0 ? 0 : 1) - (old == 0 ? 0 : 1);
+    }
+
+    // Rebuilds the counts from the cells after a bulk write.
+    private void recount() {
+        for (int i = 0; i < rowCounts.length; i++) {
+            rowCounts[i] = 0;
+            columnCounts[i] = 0;
+        }
+        nonZeroCells = 0;
+        for (int i = 0; i < GRID_SIZE; i++) {
+            for (int j = 0; j < GRID_SIZE; j++) {
+                int value = grid[i][j];
+                rowCounts[i * VALUES + value]++;
+                columnCounts[j * VALUES + value]++;
+                if (value != 0) {
+                    nonZeroCells++;
+                }
+            }
+        }
+    }
+
+    // The row's counts by value, from a scan when they are not kept.
+    private int[] countRow(int rowNumber) {
+        int[] counts = new int[VALUES];
+        for (int j = 0; j < GRID_SIZE; j++) {
+            counts[grid[rowNumber][j]]++;
+        }
+        return counts;
+    }
+
+    private int[] countColumn(int columnNumber) {
+        int[] counts = new int[VALUES];
+        for (int i = 0; i < GRID_SIZE; i++) {
+            counts[grid[i][columnNumber]]++;
+        }
+        return counts;
+    }
+
+    private boolean checkRow(int rowNumber) {
+        if (rowNumber < 0 || rowNumber >= GRID_SIZE) {
+            System.out.println("Error: Invalid row number.");
+            return false;
+        }
+        return true;
+    }
+
+    private boolean checkColumn(int columnNumber) {
+        if (columnNumber < 0 || columnNumber >= GRID_SIZE) {
+            System.out.println("Error: Invalid column number.");
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean checkValue(int value) {
+        if (value < 0 || value > 9) {
+            System.out.println("Error: Value must be between 0 and 9.");
+            return false;
+        }
+        return true;
+    }
+
+    private static int sum(int[] counts, int base) {
+        int sum = 0;
+        for (int value = 1; value < VALUES; value++) {
+            sum += value * counts[base + value];
+        }
+        return sum;
+    }
+
+    private static int max(int[] counts, int base) {
+        int value = VALUES - 1;
+        while (value > 0 && counts[base + value] == 0) {
+            value--;
+        }
+        return value;
+    }
 }
 
 public class GridLayoutTest {
@@ -0,0 +1,237 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Draws a grid as text. Each frame is encoded straight into a byte buffer that is kept
+ * from one frame to the next and written out with a single call, instead of being
+ * printed a cell at a time. A frame looks exactly like the grid's
+ * {@link GridLayout#displayGrid()} output always has.
+ *
+ * For animating a grid on an ANSI terminal, {@link #drawChanges} draws a full frame the
+ * first time and afterwards only what the grid's {@link GridChanges} say has changed
+ * since: rewritten rows, rewritten columns and single updated cells, each placed with
+ * a cursor move. That assumes the whole frame fits on the screen and that nothing else
+ * writes to the terminal between calls.
+ */
+class GridRenderer {
+    private static final byte[] NEWLINE = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HOME_AND_CLEAR = "\033[H\033[2J".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ROW_SEPARATOR = " - ".getBytes(StandardCharsets.US_ASCII);
+    private static final int MIN_BUFFER = 256;
+    // Longest cursor move: ESC [ line ; column H.
+    private static final int MAX_MOVE = 24;
+    // Typical bytes to move to a cell and draw it, for deciding when a full frame is cheaper.
+    private static final int CELL_COST = 12;
+    // Screen line of row 0, counting from 1, under the title, a blank line and two header lines.
+    private static final int FIRST_ROW_LINE = 5;
+
+    private final GridLayout grid;
+    private final int rows;
+    private final int columns;
+    private final byte[] heading;
+    private final int frameLength;
+    private final int[] row;
+    private byte[] buffer = new byte[MIN_BUFFER];
+    private ByteBuffer view = ByteBuffer.wrap(buffer);
+    private int length;
+    private boolean drawn;
+
+    public GridRenderer(GridLayout grid) {
+        this.grid = grid;
+        this.rows = grid.getRowCount();
+        this.columns = grid.getColumnCount();
+
+        StringBuilder sb = new StringBuilder(64 + columns * 8);
+        String newline = System.lineSeparator();
+        sb.append(":::: The GRID ::::").append(newline).append(newline).append("  ");
+        for (int i = 0; i < columns; i++) {
+            sb.append(i).append(' ');
+        }
+        sb.append(newline).append("  ");
+        for (int i = 0; i < columns; i++) {
+            sb.append("- ");
+        }
+        sb.append(newline);
+        heading = sb.toString().getBytes(StandardCharsets.US_ASCII);
+
+        long frame = heading.length + NEWLINE.length;
+        for (int i = 0; i < rows; i++) {
+            frame += rowLength(i) + NEWLINE.length;
+        }
+        if (frame > Integer.MAX_VALUE - 8 - HOME_AND_CLEAR.length) {
+            throw new IllegalArgumentException("Grid too large to draw: a frame would take " + frame + " bytes");
+        }
+        frameLength = (int) frame;
+        row = new int[columns];
+    }
+
+    /**
+     * Encodes a full frame. The returned buffer is reused by the next call.
+     */
+    public ByteBuffer encodeFrame() {
+        length = 0;
+        ensureCapacity(frameLength);
+        appendFrame();
+        return output();
+    }
+
+    /**
+     * Encodes what changed since the last call as terminal output, or a full frame from
+     * the top of the screen on the first call and whenever redrawing everything would
+     * take fewer bytes than the changes. Returns an empty buffer when nothing changed.
+     * The returned buffer is reused by the next call.
+     */
+    public ByteBuffer encodeChanges() {
+        GridChanges changes = grid.getChanges();
+        length = 0;
+        if (!drawn || changes.allChanged() || changesLength(changes) >= frameLength) {
+            ensureCapacity(HOME_AND_CLEAR.length + frameLength);
+            append(HOME_AND_CLEAR);
+            appendFrame();
+            drawn = true;
+        } else if (!changes.isEmpty()) {
+            appendChanges(changes);
+            ensureCapacity(length + MAX_MOVE);
+            moveTo(FIRST_ROW_LINE + rows + 1, 1);
+        }
+        changes.reset();
+        return output();
+    }
+
+    public void drawFrame(WritableByteChannel out) throws IOException {
+        write(encodeFrame(), out);
+    }
+
+    public void drawChanges(WritableByteChannel out) throws IOException {
+        write(encodeChanges(), out);
+    }
+
+    /**
+     * Writes a full frame to the stream in one call and flushes it.
+     */
+    public void print(PrintStream out) {
+        encodeFrame();
+        out.write(buffer, 0, length);
+        out.flush();
+    }
+
+    private static void write(ByteBuffer frame, WritableByteChannel out) throws IOException {
+        while (frame.hasRemaining()) {
+            out.write(frame);
+        }
+    }
+
+    private void appendFrame() {
+        append(heading);
+        for (int i = 0; i < rows; i++) {
+            appendRow(i);
+            append(NEWLINE);
+        }
+        append(NEWLINE);
+    }
+
+    // Columns and cells inside a redrawn row are skipped, as are cells inside a redrawn column.
+    private void appendChanges(GridChanges changes) {
+        for (int i = changes.nextChangedRow(0); i >= 0; i = changes.nextChangedRow(i + 1)) {
+            ensureCapacity(length + MAX_MOVE + rowLength(i));
+            moveTo(FIRST_ROW_LINE + i, 1);
+            appendRow(i);
+        }
+        for (int j = changes.nextChangedColumn(0); j >= 0; j = changes.nextChangedColumn(j + 1)) {
+            int[] column = grid.getColumn(j);
+            for (int i = 0; i < rows; i++) {
+                if (!changes.isRowChanged(i)) {
+                    appendCell(i, j, column[i]);
+                }
+            }
+        }
+        for (int k = 0; k < changes.cellCount(); k++) {
+            int i = changes.cellRow(k);
+            int j = changes.cellColumn(k);
+            if (!changes.isRowChanged(i) && !changes.isColumnChanged(j)) {
+                appendCell(i, j, grid.getCellValue(i, j));
+            }
+        }
+    }
+
+    private long changesLength(GridChanges changes) {
+        return (long) changes.changedRowCount() * (MAX_MOVE + 2 * columns)
+                + ((long) changes.changedColumnCount() * rows + changes.cellCount()) * CELL_COST;
+    }
+
+    private void appendRow(int i) {
+        grid.copyRow(i, row);
+        appendInt(i);
+        append(ROW_SEPARATOR);
+        byte[] b = buffer;
+        int at = length;
+        for (int j = 0; j < columns; j++, at += 2) {
+            b[at] = (byte) ('0' + row[j]);
+            b[at + 1] = ' ';
+        }
+        length = at;
+    }
+
+    private void appendCell(int i, int j, int value) {
+        ensureCapacity(length + MAX_MOVE + 1);
+        moveTo(FIRST_ROW_LINE + i, prefixLength(i) + 2 * j + 1);
+        buffer[length++] = (byte) ('0' + value);
+    }
+
+    private void moveTo(int line, int column) {
+        buffer[length++] = '\033';
+        buffer[length++] = '[';
+        appendInt(line);
+        buffer[length++] = ';';
+        appendInt(column);
+        buffer[length++] = 'H';
+    }
+
+    private void appendInt(int value) {
+        int end = length + digits(value);
+        for (int at = end - 1; at >= length; at--, value /= 10) {
+            buffer[at] = (byte) ('0' + value % 10);
+        }
+        length = end;
+    }
+
+    private void append(byte[] bytes) {
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private ByteBuffer output() {
+        view.clear().limit(length);
+        return view;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buffer.length) {
+            int grown = (int) Math.min(Integer.MAX_VALUE - 8, Math.max((long) buffer.length << 1, capacity));
+            buffer = Arrays.copyOf(buffer, grown);
+            view = ByteBuffer.wrap(buffer);
+        }
+    }
+
+    // A row without its line break: the row number, " - ", then a digit and a space per cell.
+    private int rowLength(int i) {
+        return prefixLength(i) + 2 * columns;
+    }
+
+    private static int prefixLength(int i) {
+        return digits(i) + ROW_SEPARATOR.length;
+    }
+
+    private static int digits(int value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+}
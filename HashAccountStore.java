@@ -0,0 +1,137 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Hash-indexed store with O(1) lookup by account ID. Accounts are kept in an
+ * insertion-ordered array and the {@link LongHashIndex} maps each ID to its position.
+ *
+ * Lookups take an optimistic read and only fall back to the read lock when they
+ * race with an insert. Iteration is weakly consistent: it sees every account added
+ * before the iterator was created and possibly some added afterwards.
+ */
+class HashAccountStore implements AccountStore {
+    private final LongHashIndex index;
+    private final StampedLock lock = new StampedLock();
+    private volatile Account[] accounts;
+    private volatile int size;
+
+    public HashAccountStore() {
+        this(16);
+    }
+
+    public HashAccountStore(int expectedSize) {
+        index = new LongHashIndex(expectedSize);
+        accounts = new Account[Math.max(expectedSize, 16)];
+    }
+
+    @Override
+    public boolean add(Account account) {
+        long stamp = lock.writeLock();
+        try {
+            int position = size;
+            if (index.putIfAbsent(account.getAccountId(), position) != LongHashIndex.MISSING) {
+                return false;
+            }
+            Account[] current = accounts;
+            if (position == current.length) {
+                current = Arrays.copyOf(current, position << 1);
+            }
+            current[position] = account;
+            accounts = current;
+            size = position + 1;
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public int addAll(List<Account> batch) {
+        long stamp = lock.writeLock();
+        try {
+            int position = size;
+            Account[] current = accounts;
+            if (position + batch.size() > current.length) {
+                current = Arrays.copyOf(current, Math.max(current.length << 1, position + batch.size()));
+            }
+            for (Account account : batch) {
+                if (index.putIfAbsent(account.getAccountId(), position) == LongHashIndex.MISSING) {
+                    current[position++] = account;
+                }
+            }
+            int added = position - size;
+            accounts = current;
+            size = position;
+            return added;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public Account get(long accountId) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            Account account = lookup(accountId);
+            if (lock.validate(stamp)) {
+                return account;
+            }
+        }
+
+        stamp = lock.readLock();
+        try {
+            return lookup(accountId);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private Account lookup(long accountId) {
+        int position = index.get(accountId);
+        Account[] current = accounts;
+        if (position == LongHashIndex.MISSING || position >= current.length) {
+            return null;
+        }
+        return current[position];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Account accountAt(int position) {
+        // Same ordering as the iterator: size first, then the array.
+        int end = size;
+        Account[] current = accounts;
+        return position < end ? current[position] : null;
+    }
+
+    @Override
+    public Iterator<Account> iterator() {
+        // Read size before the array: any array published after that size holds those entries.
+        int end = size;
+        Account[] snapshot = accounts;
+
+        return new Iterator<Account>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < end;
+            }
+
+            @Override
+            public Account next() {
+                if (next >= end) {
+                    throw new NoSuchElementException();
+                }
+                return snapshot[next++];
+            }
+        };
+    }
+}
@@ -0,0 +1,500 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Secondary index from holder name to account IDs, for exact, prefix and fuzzy
+ * (edit distance) searches. Names are matched case-insensitively with surrounding
+ * whitespace ignored.
+ *
+ * Most entries live in a sorted run: one array of distinct normalized names and one
+ * flat array of account IDs grouped by name. Each distinct name is stored once
+ * however many accounts share it, so an account costs about one long plus its share
+ * of the name. New entries go into a small sorted delta that is merged into the run
+ * once it grows past a fraction of the run's size. Removing an account from the run
+ * overwrites its ID with a tombstone that the next merge drops.
+ *
+ * Lookups binary-search the run. Fuzzy search walks the run in order and reuses the
+ * edit-distance rows of the prefix a name shares with the previous one, skipping
+ * every name under a prefix that is already too far from the query.
+ */
+class HolderIndex {
+    private static final long TOMBSTONE = Long.MIN_VALUE;
+    private static final int MIN_DELTA_SIZE = 4096;
+
+    private final AccountStore accounts;
+    private final StampedLock lock = new StampedLock();
+
+    // Sorted run: ids[offsets[i] .. offsets[i + 1]) belong to names[i].
+    private String[] names = new String[0];
+    private int[] offsets = {0};
+    private long[] ids = new long[0];
+    private int tombstones;
+
+    private final TreeMap<String, Postings> delta = new TreeMap<>();
+    private int deltaSize;
+
+    public HolderIndex(AccountStore accounts) {
+        this.accounts = accounts;
+    }
+
+    static String normalize(String holder) {
+        return holder.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Re-indexes every account in the store, building the run with one sort instead
+     * of merging entries in one at a time. Meant for start-up, once the accounts have
+     * been loaded.
+     */
+    public void rebuild() {
+        long stamp = lock.writeLock();
+        try {
+            int count = accounts.size();
+            String[] keys = new String[count];
+            long[] keyIds = new long[count];
+            int n = 0;
+            for (Account account : accounts) {
+                if (n == count) {
+                    break;
+                }
+                account.setHolderIndex(this);
+                keys[n] = normalize(account.getAccountHolder());
+                keyIds[n++] = account.getAccountId();
+            }
+            sort(keys, keyIds, 0, n, new String[n], new long[n]);
+
+            int distinct = 0;
+            int[] runOffsets = new int[n + 1];
+            for (int i = 0; i < n; i++) {
+                if (distinct == 0 || !keys[i].equals(keys[distinct - 1])) {
+                    runOffsets[distinct] = i;
+                    keys[distinct++] = keys[i];
+                }
+            }
+            runOffsets[distinct] = n;
+
+            names = Arrays.copyOf(keys, distinct);
+            offsets = Arrays.copyOf(runOffsets, distinct + 1);
+            ids = n == count ? keyIds : Arrays.copyOf(keyIds, n);
+            tombstones = 0;
+            delta.clear();
+            deltaSize = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void add(Account account) {
+        account.setHolderIndex(this);
+        long stamp = lock.writeLock();
+        try {
+            addToDelta(normalize(account.getAccountHolder()), account.getAccountId());
+            if (deltaSize > Math.max(MIN_DELTA_SIZE, ids.length >>> 4)) {
+                merge();
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Indexes a batch of new accounts under one acquisition of the write lock.
+     */
+    public void addAll(List<Account> batch) {
+        for (Account account : batch) {
+            account.setHolderIndex(this);
+        }
+        long stamp = lock.writeLock();
+        try {
+            for (Account account : batch) {
+                addToDelta(normalize(account.getAccountHolder()), account.getAccountId());
+            }
+            if (deltaSize > Math.max(MIN_DELTA_SIZE, ids.length >>> 4)) {
+                merge();
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Moves an account from its old holder name to its new one. Called by
+     * {@link Account#setAccountHolder} while it holds the account's lock. An account
+     * that is not indexed under its old name is left alone: it is not indexed yet, and
+     * {@link #add} will read the new name when it is.
+     */
+    void rename(long accountId, String oldHolder, String newHolder) {
+        String oldKey = normalize(oldHolder);
+        String newKey = normalize(newHolder);
+        if (oldKey.equals(newKey)) {
+            return;
+        }
+
+        long stamp = lock.writeLock();
+        try {
+            if (remove(oldKey, accountId)) {
+                addToDelta(newKey, accountId);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Returns up to {@code limit} accounts whose holder name equals {@code holder}.
+     */
+    public List<Account> findExact(String holder, int limit) {
+        String key = normalize(holder);
+        List<Account> found = new ArrayList<>();
+        long stamp = lock.readLock();
+        try {
+            int i = Arrays.binarySearch(names, key);
+            if (i >= 0) {
+                collect(i, found, limit);
+            }
+            Postings postings = delta.get(key);
+            if (postings != null) {
+                postings.collect(accounts, found, limit);
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return found;
+    }
+
+    /**
+     * Returns up to {@code limit} accounts whose holder name starts with
+     * {@code prefix}, ordered by name.
+     */
+    public List<Account> findByPrefix(String prefix, int limit) {
+        String key = normalize(prefix);
+        List<Account> found = new ArrayList<>();
+        long stamp = lock.readLock();
+        try {
+            // Walks the run and the delta together, taking the smaller name each time.
+            int i = lowerBound(key);
+            Iterator<Map.Entry<String, Postings>> pending = delta.tailMap(key).entrySet().iterator();
+            Map.Entry<String, Postings> entry = pending.hasNext() ? pending.next() : null;
+            while (found.size() < limit) {
+                boolean inRun = i < names.length && names[i].startsWith(key);
+                boolean inDelta = entry != null && entry.getKey().startsWith(key);
+                if (inRun && (!inDelta || names[i].compareTo(entry.getKey()) <= 0)) {
+                    collect(i++, found, limit);
+                } else if (inDelta) {
+                    entry.getValue().collect(accounts, found, limit);
+                    entry = pending.hasNext() ? pending.next() : null;
+                } else {
+                    break;
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return found;
+    }
+
+    /**
+     * Returns up to {@code limit} accounts whose holder name is within
+     * {@code maxEdits} insertions, deletions or substitutions of {@code holder}.
+     */
+    public List<Account> findFuzzy(String holder, int maxEdits, int limit) {
+        String query = normalize(holder);
+        List<Account> found = new ArrayList<>();
+        int[][] rows = new int[query.length() + maxEdits + 2][];
+        rows[0] = new int[query.length() + 1];
+        for (int j = 0; j <= query.length(); j++) {
+            rows[0][j] = j;
+        }
+
+        long stamp = lock.readLock();
+        try {
+            // Rows 0..valid hold the distances for the first `valid` characters of `previous`.
+            String previous = "";
+            int valid = 0;
+            int i = 0;
+            while (i < names.length && found.size() < limit) {
+                String name = names[i];
+                int depth = Math.min(valid, commonPrefix(previous, name));
+                boolean pruned = false;
+                for (; depth < name.length(); depth++) {
+                    if (depth + 1 >= rows.length) {
+                        pruned = true;
+                        break;
+                    }
+                    if (nextRow(rows, depth, name.charAt(depth), query) > maxEdits) {
+                        depth++;
+                        pruned = true;
+                        break;
+                    }
+                }
+                previous = name;
+                valid = depth;
+
+                if (pruned) {
+                    // No name that starts with the first `depth` characters can match.
+                    i = prefixEnd(name, depth, i);
+                    continue;
+                }
+                if (rows[name.length()][query.length()] <= maxEdits) {
+                    collect(i, found, limit);
+                }
+                i++;
+            }
+
+            for (Map.Entry<String, Postings> entry : delta.entrySet()) {
+                if (found.size() >= limit) {
+                    break;
+                }
+                if (editDistance(entry.getKey(), query) <= maxEdits) {
+                    entry.getValue().collect(accounts, found, limit);
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return found;
+    }
+
+    /**
+     * Number of indexed accounts.
+     */
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return ids.length - tombstones + deltaSize;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private void addToDelta(String key, long accountId) {
+        delta.computeIfAbsent(key, k -> new Postings()).add(accountId);
+        deltaSize++;
+    }
+
+    private boolean remove(String key, long accountId) {
+        Postings postings = delta.get(key);
+        if (postings != null && postings.remove(accountId)) {
+            deltaSize--;
+            if (postings.size == 0) {
+                delta.remove(key);
+            }
+            return true;
+        }
+
+        int i = Arrays.binarySearch(names, key);
+        if (i < 0) {
+            return false;
+        }
+        for (int p = offsets[i]; p < offsets[i + 1]; p++) {
+            if (ids[p] == accountId) {
+                ids[p] = TOMBSTONE;
+                tombstones++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Merges the delta into the run, dropping tombstones and names with no accounts left.
+    private void merge() {
+        int distinct = names.length + delta.size();
+        String[] mergedNames = new String[distinct];
+        int[] mergedOffsets = new int[distinct + 1];
+        long[] mergedIds = new long[ids.length - tombstones + deltaSize];
+
+        int nameCount = 0;
+        int idCount = 0;
+        int i = 0;
+        for (Map.Entry<String, Postings> entry : delta.entrySet()) {
+            String key = entry.getKey();
+            for (; i < names.length && names[i].compareTo(key) < 0; i++) {
+                idCount = copyRun(i, mergedIds, idCount);
+                nameCount = closeName(names[i], mergedNames, mergedOffsets, nameCount, idCount);
+            }
+            String name = key;
+            if (i < names.length && names[i].equals(key)) {
+                name = names[i];
+                idCount = copyRun(i++, mergedIds, idCount);
+            }
+            Postings postings = entry.getValue();
+            System.arraycopy(postings.ids, 0, mergedIds, idCount, postings.size);
+            idCount += postings.size;
+            nameCount = closeName(name, mergedNames, mergedOffsets, nameCount, idCount);
+        }
+        for (; i < names.length; i++) {
+            idCount = copyRun(i, mergedIds, idCount);
+            nameCount = closeName(names[i], mergedNames, mergedOffsets, nameCount, idCount);
+        }
+
+        names = nameCount == distinct ? mergedNames : Arrays.copyOf(mergedNames, nameCount);
+        offsets = nameCount == distinct ? mergedOffsets : Arrays.copyOf(mergedOffsets, nameCount + 1);
+        ids = mergedIds;
+        tombstones = 0;
+        delta.clear();
+        deltaSize = 0;
+    }
+
+    private int copyRun(int name, long[] target, int count) {
+        for (int p = offsets[name]; p < offsets[name + 1]; p++) {
+            if (ids[p] != TOMBSTONE) {
+                target[count++] = ids[p];
+            }
+        }
+        return count;
+    }
+
+    private static int closeName(String name, String[] names, int[] offsets, int count, int idCount) {
+        if (idCount == offsets[count]) {
+            return count;
+        }
+        names[count] = name;
+        offsets[count + 1] = idCount;
+        return count + 1;
+    }
+
+    private void collect(int name, List<Account> found, int limit) {
+        for (int p = offsets[name]; p < offsets[name + 1] && found.size() < limit; p++) {
+            if (ids[p] != TOMBSTONE) {
+                Account account = accounts.get(ids[p]);
+                if (account != null) {
+                    found.add(account);
+                }
+            }
+        }
+    }
+
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = names.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (names[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // First index after `from` whose name does not start with the first `length` characters of `prefix`.
+    private int prefixEnd(String prefix, int length, int from) {
+        int low = from + 1;
+        int high = names.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (names[mid].regionMatches(0, prefix, 0, length)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Fills rows[depth + 1] from rows[depth] and returns its smallest entry.
+    private static int nextRow(int[][] rows, int depth, char c, String query) {
+        int[] above = rows[depth];
+        int[] row = rows[depth + 1];
+        if (row == null) {
+            row = rows[depth + 1] = new int[query.length() + 1];
+        }
+        row[0] = depth + 1;
+        int min = row[0];
+        for (int j = 1; j <= query.length(); j++) {
+            int cost = query.charAt(j - 1) == c ? 0 : 1;
+            row[j] = Math.min(Math.min(row[j - 1] + 1, above[j] + 1), above[j - 1] + cost);
+            min = Math.min(min, row[j]);
+        }
+        return min;
+    }
+
+    private static int editDistance(String name, String query) {
+        int[][] rows = new int[name.length() + 1][];
+        rows[0] = new int[query.length() + 1];
+        for (int j = 0; j <= query.length(); j++) {
+            rows[0][j] = j;
+        }
+        for (int depth = 0; depth < name.length(); depth++) {
+            nextRow(rows, depth, name.charAt(depth), query);
+        }
+        return rows[name.length()][query.length()];
+    }
+
+    // Stable merge sort of keys[from, to), moving each key's ID along with it.
+    private static void sort(String[] keys, long[] keyIds, int from, int to, String[] keyTemp, long[] idTemp) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        sort(keys, keyIds, from, middle, keyTemp, idTemp);
+        sort(keys, keyIds, middle, to, keyTemp, idTemp);
+        if (keys[middle - 1].compareTo(keys[middle]) <= 0) {
+            return;
+        }
+
+        System.arraycopy(keys, from, keyTemp, from, to - from);
+        System.arraycopy(keyIds, from, idTemp, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && keyTemp[left].compareTo(keyTemp[right]) <= 0)) {
+                keys[i] = keyTemp[left];
+                keyIds[i] = idTemp[left++];
+            } else {
+                keys[i] = keyTemp[right];
+                keyIds[i] = idTemp[right++];
+            }
+        }
+    }
+
+    private static int commonPrefix(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < length && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Growable list of the account IDs under one name in the delta.
+     */
+    private static class Postings {
+        long[] ids = new long[2];
+        int size;
+
+        void add(long accountId) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size << 1);
+            }
+            ids[size++] = accountId;
+        }
+
+        boolean remove(long accountId) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == accountId) {
+                    ids[i] = ids[--size];
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void collect(AccountStore accounts, List<Account> found, int limit) {
+            for (int i = 0; i < size && found.size() < limit; i++) {
+                Account account = accounts.get(ids[i]);
+                if (account != null) {
+                    found.add(account);
+                }
+            }
+        }
+    }
+}
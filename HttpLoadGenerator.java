@@ -0,0 +1,87 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local load generator for {@link BankHttpServer}. Keeps a fixed number of requests in
+ * flight, alternating deposits and withdrawals across the given accounts, and reports
+ * requests/sec and p50/p99/p999 latency. Latencies go into a {@link LatencyHistogram},
+ * so memory stays the same however long the run.
+ *
+ * <pre>
+ * java HttpLoadGenerator http://localhost:8080 10000 30 111,222,333,4444
+ * </pre>
+ */
+public class HttpLoadGenerator {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.out.println("Usage: java HttpLoadGenerator <baseUrl> <concurrency> <seconds> <accountIds>");
+            return;
+        }
+
+        String baseUrl = args[0];
+        int concurrency = Integer.parseInt(args[1]);
+        long durationNanos = Duration.ofSeconds(Long.parseLong(args[2])).toNanos();
+        long[] accountIds = Arrays.stream(args[3].split(",")).mapToLong(Long::parseLong).toArray();
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()))
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+
+        LatencyHistogram latencies = new LatencyHistogram();
+        AtomicLong requests = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        AtomicLong sequence = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(concurrency);
+        long start = System.nanoTime();
+        long end = start + durationNanos;
+
+        for (int i = 0; i < concurrency; i++) {
+            new Object() {
+                void send() {
+                    if (System.nanoTime() >= end) {
+                        done.countDown();
+                        return;
+                    }
+                    long n = sequence.getAndIncrement();
+                    long accountId = accountIds[(int) (n % accountIds.length)];
+                    String operation = (n / accountIds.length) % 2 == 0 ? "deposit" : "withdraw";
+                    HttpRequest request = HttpRequest.newBuilder(
+                            URI.create(baseUrl + "/accounts/" + accountId + "/" + operation))
+                            .POST(HttpRequest.BodyPublishers.ofString("{\"amount\":\"0.01\"}"))
+                            .build();
+
+                    long sent = System.nanoTime();
+                    client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, failure) -> {
+                        long latency = System.nanoTime() - sent;
+                        if (failure != null || response.statusCode() >= 500) {
+                            errors.incrementAndGet();
+                        }
+                        requests.incrementAndGet();
+                        latencies.record(latency);
+                        send();
+                    });
+                }
+            }.send();
+        }
+
+        done.await();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        LatencyHistogram.Snapshot snapshot = latencies.snapshot();
+
+        System.out.printf("Requests: %d in %.1fs (%.0f req/s), errors: %d%n",
+                requests.get(), seconds, requests.get() / seconds, errors.get());
+        System.out.printf("Latency p50: %.2f ms, p99: %.2f ms, p999: %.2f ms%n",
+                snapshot.getValueAtQuantile(0.50) / 1e6, snapshot.getValueAtQuantile(0.99) / 1e6,
+                snapshot.getValueAtQuantile(0.999) / 1e6);
+        System.exit(0);
+    }
+}
@@ -0,0 +1,169 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Crash test for the transaction journal. A child JVM runs deposits, withdrawals and
+ * transfers against a journaled bank, reporting each time a group of them is durable,
+ * and halts partway through a group. The bank is then recovered from the journal, and
+ * it must hold every operation reported durable, and a prefix of the operations in the
+ * order they were made, with no transfer half applied. Recovering a second time must
+ * give the same balances.
+ *
+ * A last check closes the journal under a running bank: operations must then fail
+ * without changing any balance, and a retried transaction ID must not be applied twice.
+ *
+ * Usage: java JournalCrashTest [crashes]
+ */
+public class JournalCrashTest {
+    private static final long DEPOSIT_ACCOUNT = 111;
+    private static final long WITHDRAW_ACCOUNT = 222;
+    private static final long FROM_ACCOUNT = 333;
+    private static final long TO_ACCOUNT = 4444;
+    private static final int OPERATIONS_PER_ROUND = 3;
+    private static final int DURABLE_EVERY = 1000;
+    private static final int MAX_ROUNDS = 20_000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 3 && args[0].equals("--child")) {
+            runChild(Path.of(args[1]), Integer.parseInt(args[2]));
+            return;
+        }
+        int crashes = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+        Random random = new Random(5);
+        for (int crash = 1; crash <= crashes; crash++) {
+            int haltAfter = DURABLE_EVERY + random.nextInt(MAX_ROUNDS - 2 * DURABLE_EVERY);
+            System.out.println(crash + ". Halt after " + haltAfter + " rounds");
+            crashAndRecover(haltAfter);
+        }
+
+        System.out.println((crashes + 1) + ". Journal closed under a running bank");
+        closedJournal();
+
+        TestChecks.finish();
+    }
+
+    private static void crashAndRecover(int haltAfter) throws Exception {
+        Path dir = Files.createTempDirectory("journal-crash");
+        Path journal = dir.resolve("bank.journal");
+        try {
+            Process child = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-cp", System.getProperty("java.class.path"), JournalCrashTest.class.getName(),
+                    "--child", journal.toString(), Integer.toString(haltAfter))
+                    .redirectErrorStream(true)
+                    .start();
+            long durableRounds = 0;
+            try (BufferedReader in = new BufferedReader(
+                    new InputStreamReader(child.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.startsWith("durable ")) {
+                        durableRounds = Long.parseLong(line.substring("durable ".length()));
+                    } else {
+                        System.out.println("   child: " + line);
+                    }
+                }
+            }
+            TestChecks.check("child halted", 1, child.waitFor());
+
+            Map<Long, Long> initial = balances(new BankManagement(new HashAccountStore()));
+            Map<Long, Long> recovered = recover(journal);
+
+            long deposits = recovered.get(DEPOSIT_ACCOUNT) - initial.get(DEPOSIT_ACCOUNT);
+            long withdrawals = initial.get(WITHDRAW_ACCOUNT) - recovered.get(WITHDRAW_ACCOUNT);
+            long transfersOut = initial.get(FROM_ACCOUNT) - recovered.get(FROM_ACCOUNT);
+            long transfersIn = recovered.get(TO_ACCOUNT) - initial.get(TO_ACCOUNT);
+            long operations = deposits + withdrawals + transfersOut;
+            System.out.printf("   %d rounds reported durable, %d operations recovered%n", durableRounds, operations);
+
+            TestChecks.check("every durable operation recovered",
+                    operations >= durableRounds * OPERATIONS_PER_ROUND);
+            TestChecks.check("no operation recovered past the halt",
+                    operations <= (long) haltAfter * OPERATIONS_PER_ROUND);
+            TestChecks.check("recovered operations are a prefix",
+                    deposits >= withdrawals && withdrawals >= transfersOut && transfersOut >= deposits - 1);
+            TestChecks.check("transfers applied to both accounts", transfersOut, transfersIn);
+            TestChecks.check("recovering again gives the same balances", recover(journal).equals(recovered));
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    private static void closedJournal() throws Exception {
+        Path dir = Files.createTempDirectory("journal-closed");
+        try {
+            BankManagement bank = new BankManagement(new HashAccountStore(), dir.resolve("bank.journal"));
+            bank.close();
+            Map<Long, Long> before = balances(bank);
+
+            int errors = 0;
+            for (int attempt = 0; attempt < 2; attempt++) {
+                try {
+                    bank.depositCents(DEPOSIT_ACCOUNT, 100);
+                } catch (UncheckedIOException e) {
+                    errors++;
+                }
+                try {
+                    bank.tryTransfer(FROM_ACCOUNT, TO_ACCOUNT, 100);
+                } catch (UncheckedIOException e) {
+                    errors++;
+                }
+                try {
+                    bank.tryWithdrawOnce(7, WITHDRAW_ACCOUNT, 100);
+                } catch (UncheckedIOException e) {
+                    errors++;
+                }
+            }
+            TestChecks.check("operations failed", 6, errors);
+            TestChecks.check("balances unchanged after failed appends", balances(bank).equals(before));
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    private static void runChild(Path journal, int haltAfter) throws Exception {
+        BankManagement bank = new BankManagement(new HashAccountStore(), journal);
+        for (int round = 1; round <= MAX_ROUNDS; round++) {
+            bank.depositCents(DEPOSIT_ACCOUNT, 1);
+            bank.withdrawCents(WITHDRAW_ACCOUNT, 1);
+            bank.transferCents(FROM_ACCOUNT, TO_ACCOUNT, 1);
+            if (round == haltAfter) {
+                Runtime.getRuntime().halt(1);
+            }
+            if (round % DURABLE_EVERY == 0) {
+                bank.awaitDurable();
+                System.out.println("durable " + round);
+                System.out.flush();
+            }
+        }
+    }
+
+    private static Map<Long, Long> recover(Path journal) throws IOException {
+        BankManagement bank = new BankManagement(new HashAccountStore(), journal);
+        Map<Long, Long> balances = balances(bank);
+        bank.close();
+        return balances;
+    }
+
+    private static Map<Long, Long> balances(BankManagement bank) {
+        Map<Long, Long> balances = new HashMap<>();
+        for (Account account : bank.getAccounts()) {
+            balances.put(account.getAccountId(), account.getBalanceCents());
+        }
+        return balances;
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        try (var paths = Files.walk(dir)) {
+            paths.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+        }
+    }
+}
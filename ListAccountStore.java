@@ -0,0 +1,44 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The original list-backed store. Lookups scan every account.
+ */
+class ListAccountStore implements AccountStore {
+    private final List<Account> accounts = new ArrayList<>();
+
+    @Override
+    public synchronized boolean add(Account account) {
+        if (get(account.getAccountId()) != null) {
+            return false;
+        }
+        accounts.add(account);
+        return true;
+    }
+
+    @Override
+    public synchronized Account get(long accountId) {
+        for (Account account : accounts) {
+            if (account.getAccountId() == accountId) {
+                return account;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized int size() {
+        return accounts.size();
+    }
+
+    @Override
+    public synchronized Account accountAt(int position) {
+        return position < accounts.size() ? accounts.get(position) : null;
+    }
+
+    @Override
+    public synchronized Iterator<Account> iterator() {
+        return new ArrayList<>(accounts).iterator();
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * Open-addressing hash map from a primitive long key to a non-negative int value.
+ * Keys are never boxed; lookups probe a flat long[] with linear probing.
+ *
+ * Keys and values are interleaved in a single table, so a reader always sees a
+ * table whose length matches its contents. This lets callers wrap {@link #get}
+ * in an optimistic read: a racing rehash can produce a wrong answer, never an
+ * exception, and a bounded probe never spins.
+ */
+class LongHashIndex {
+    static final int MISSING = -1;
+
+    private static final int MIN_CAPACITY = 16;
+    // The table holds two longs per slot and must fit in one array.
+    private static final int MAX_CAPACITY = 1 << 29;
+    static final int MAX_SIZE = MAX_CAPACITY >>> 1;
+
+    // Pairs of (key, value + 1); a stored value of 0 marks an empty slot.
+    private long[] table;
+    private int size;
+    private int resizeThreshold;
+
+    public LongHashIndex() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * An index sized to hold {@code expectedSize} keys without growing. Throws
+     * IllegalArgumentException above {@link #MAX_SIZE}, the most keys it can hold.
+     */
+    public LongHashIndex(int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the value mapped to the key, or {@link #MISSING}.
+     */
+    public int get(long key) {
+        long[] table = this.table;
+        int mask = (table.length >>> 1) - 1;
+        int slot = mix(key) & mask;
+
+        for (int probes = 0; probes <= mask; probes++) {
+            long stored = table[(slot << 1) + 1];
+            if (stored == 0) {
+                return MISSING;
+            }
+            if (table[slot << 1] == key) {
+                return (int) (stored - 1);
+            }
+            slot = (slot + 1) & mask;
+        }
+        return MISSING;
+    }
+
+    /**
+     * Maps the key to the value unless it is already present.
+     * Returns the existing value, or {@link #MISSING} if the value was inserted.
+     */
+    public int putIfAbsent(long key, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Value cannot be negative");
+        }
+
+        int mask = (table.length >>> 1) - 1;
+        int slot = mix(key) & mask;
+
+        while (table[(slot << 1) + 1] != 0) {
+            if (table[slot << 1] == key) {
+                return (int) (table[(slot << 1) + 1] - 1);
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == MAX_SIZE) {
+            throw new IllegalStateException("Index cannot hold more than " + MAX_SIZE + " keys");
+        }
+        table[slot << 1] = key;
+        table[(slot << 1) + 1] = value + 1L;
+
+        if (++size > resizeThreshold) {
+            rehash((mask + 1) << 1);
+        }
+        return MISSING;
+    }
+
+    /**
+     * Removes the key. Returns its value, or {@link #MISSING} if it was not present.
+     * Later keys in the probe run are shifted back instead of leaving a tombstone, so
+     * lookups stay as short as if the key had never been inserted.
+     */
+    public int remove(long key) {
+        int mask = (table.length >>> 1) - 1;
+        int slot = mix(key) & mask;
+
+        while (table[(slot << 1) + 1] != 0) {
+            if (table[slot << 1] == key) {
+                int value = (int) (table[(slot << 1) + 1] - 1);
+                int hole = slot;
+                for (int next = (hole + 1) & mask; table[(next << 1) + 1] != 0; next = (next + 1) & mask) {
+                    // Move the entry back unless its home slot lies after the hole.
+                    int home = mix(table[next << 1]) & mask;
+                    if (((next - home) & mask) >= ((next - hole) & mask)) {
+                        table[hole << 1] = table[next << 1];
+                        table[(hole << 1) + 1] = table[(next << 1) + 1];
+                        hole = next;
+                    }
+                }
+                table[hole << 1] = 0;
+                table[(hole << 1) + 1] = 0;
+                size--;
+                return value;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return MISSING;
+    }
+
+    public void clear() {
+        allocate(MIN_CAPACITY);
+        size = 0;
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldTable = table;
+        long[] newTable = new long[newCapacity << 1];
+
+        int mask = newCapacity - 1;
+        for (int i = 0; i < oldTable.length; i += 2) {
+            if (oldTable[i + 1] != 0) {
+                int slot = mix(oldTable[i]) & mask;
+                while (newTable[(slot << 1) + 1] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                newTable[slot << 1] = oldTable[i];
+                newTable[(slot << 1) + 1] = oldTable[i + 1];
+            }
+        }
+
+        table = newTable;
+        resizeThreshold = newCapacity >>> 1;
+    }
+
+    private void allocate(int capacity) {
+        table = new long[capacity << 1];
+        resizeThreshold = capacity >>> 1;
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        if (expectedSize > MAX_SIZE) {
+            throw new IllegalArgumentException("Expected size cannot be more than " + MAX_SIZE);
+        }
+        int capacity = MIN_CAPACITY;
+        while (capacity >>> 1 < expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    // Account IDs are mostly sequential, so spread the bits before masking.
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
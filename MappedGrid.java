@@ -0,0 +1,406 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Grid kept in a memory-mapped file, one byte per cell, so it can be larger than the
+ * heap and outlives the process. Opening an existing grid maps the file and reads
+ * only its header; cells are paged in by the OS as they are touched. A new file is
+ * created sparse, so a new grid starts out empty without being cleared.
+ *
+ * <pre>
+ * header: int magic | int version | int rows | int columns, padded to 64 bytes
+ * cells:  one byte per cell, row after row
+ * </pre>
+ *
+ * The file is mapped in chunks of whole rows of up to 1GB each. Writes reach the page
+ * cache at once and so survive the process; {@link #flush()} forces them to disk.
+ *
+ * {@link #snapshot()} returns a consistent read-only view that other threads can read
+ * while this grid keeps being written. Snapshots are copy-on-write: taking one copies
+ * nothing, and the first write to each 16KB page after it copies that page's old
+ * contents for the snapshot, once however many snapshots are open. Writes are
+ * serialized on the grid, which is otherwise meant for one thread at a time.
+ */
+class MappedGrid extends AbstractGrid implements Closeable {
+    private static final int MAGIC = 0x47524944;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final long MAX_CHUNK_SIZE = 1L << 30;
+    private static final int PAGE_SIZE = 1 << 14;
+    private static final VarHandle PAGES = MethodHandles.arrayElementVarHandle(byte[][].class);
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer[] chunks;
+    private final int rowsPerChunk;
+    private final int pagesPerChunk;
+    private final byte[] readBuffer;
+    private final byte[] writeBuffer;
+
+    // Copy-on-write state, guarded by this: the epoch of the newest snapshot, and for
+    // each page the epoch at which its contents were last saved for open snapshots.
+    private final List<Snapshot> snapshots = new ArrayList<>();
+    private final int[] pageSavedAt;
+    private int epoch;
+
+    private MappedGrid(Path path, FileChannel channel, int rows, int columns) throws IOException {
+        super(rows, columns);
+        this.path = path;
+        this.channel = channel;
+        rowsPerChunk = (int) Math.min(rows, Math.max(1, MAX_CHUNK_SIZE / columns));
+        pagesPerChunk = (int) (((long) rowsPerChunk * columns + PAGE_SIZE - 1) / PAGE_SIZE);
+        chunks = new MappedByteBuffer[(rows + rowsPerChunk - 1) / rowsPerChunk];
+        for (int i = 0; i < chunks.length; i++) {
+            int chunkRows = Math.min(rowsPerChunk, rows - i * rowsPerChunk);
+            chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                    HEADER_SIZE + (long) i * rowsPerChunk * columns, (long) chunkRows * columns);
+        }
+        pageSavedAt = new int[chunks.length * pagesPerChunk];
+        readBuffer = new byte[columns];
+        writeBuffer = new byte[columns];
+    }
+
+    /**
+     * Opens the grid stored at {@code path}.
+     */
+    public static MappedGrid open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            int read;
+            do {
+                read = channel.read(header, header.position());
+            } while (read > 0 && header.hasRemaining());
+            header.flip();
+            if (header.remaining() < 16 || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Grid file " + path + " has an unknown format");
+            }
+            int rows = header.getInt();
+            int columns = header.getInt();
+            if (rows < 1 || columns < 1 || channel.size() < HEADER_SIZE + (long) rows * columns) {
+                throw new IOException("Grid file " + path + " is truncated");
+            }
+            return new MappedGrid(path, channel, rows, columns);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the grid stored at {@code path}, or creates an empty one of the given size if
+     * there is no file yet. An existing grid must have that size.
+     */
+    public static MappedGrid open(Path path, int rows, int columns) throws IOException {
+        if (rows < 1 || columns < 1) {
+            throw new IllegalArgumentException("A grid needs at least one row and one column");
+        }
+        if (Files.exists(path)) {
+            MappedGrid grid = open(path);
+            if (grid.rows != rows || grid.columns != columns) {
+                grid.close();
+                throw new IOException("Grid file " + path + " holds a " + grid.rows + " x " + grid.columns
+                        + " grid, not " + rows + " x " + columns);
+            }
+            return grid;
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(columns).clear();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            // Writing the last byte sizes the file without writing the cells in between.
+            channel.write(ByteBuffer.allocate(1), HEADER_SIZE + (long) rows * columns - 1);
+            channel.force(true);
+            return new MappedGrid(path, channel, rows, columns);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Forces every write so far to disk.
+     */
+    public void flush() {
+        for (MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+    }
+
+    /**
+     * Flushes and closes the file. The grid and its snapshots must not be used afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    /**
+     * A read-only view of every cell as of now. Close it when done, so writes stop
+     * saving pages for it.
+     */
+    public synchronized Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot(++epoch);
+        snapshots.add(snapshot);
+        return snapshot;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (MappedByteBuffer chunk : chunks) {
+            int i = 0;
+            for (int end = chunk.capacity() - 7; i < end; i += 8) {
+                if (chunk.getLong(i) != 0) {
+                    return false;
+                }
+            }
+            for (; i < chunk.capacity(); i++) {
+                if (chunk.get(i) != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    int get(int row, int column) {
+        return chunks[row / rowsPerChunk].get(offset(row, column));
+    }
+
+    @Override
+    synchronized void set(int row, int column, int value) {
+        put(row, column, value);
+    }
+
+    @Override
+    synchronized void writeRow(int row, int[] values) {
+        for (int i = 0; i < values.length; i++) {
+            writeBuffer[i] = (byte) values[i];
+        }
+        int chunk = row / rowsPerChunk;
+        int at = offset(row, 0);
+        beforeWrite(chunk, at, at + values.length);
+        chunks[chunk].put(at, writeBuffer, 0, values.length);
+    }
+
+    @Override
+    void readRow(int row, int[] into) {
+        chunks[row / rowsPerChunk].get(offset(row, 0), readBuffer, 0, columns);
+        for (int i = 0; i < columns; i++) {
+            into[i] = readBuffer[i];
+        }
+    }
+
+    @Override
+    synchronized void clearRow(int row) {
+        int chunk = row / rowsPerChunk;
+        int at = offset(row, 0);
+        beforeWrite(chunk, at, at + columns);
+        Arrays.fill(writeBuffer, (byte) 0);
+        chunks[chunk].put(at, writeBuffer, 0, columns);
+    }
+
+    @Override
+    synchronized void writeColumn(int column, int[] values) {
+        for (int i = 0; i < values.length; i++) {
+            put(i, column, values[i]);
+        }
+    }
+
+    @Override
+    synchronized void clearColumn(int column) {
+        for (int i = 0; i < rows; i++) {
+            put(i, column, 0);
+        }
+    }
+
+    @Override
+    synchronized void clearCells() {
+        byte[] zeros = new byte[PAGE_SIZE];
+        for (int chunk = 0; chunk < chunks.length; chunk++) {
+            MappedByteBuffer buffer = chunks[chunk];
+            beforeWrite(chunk, 0, buffer.capacity());
+            for (int at = 0; at < buffer.capacity(); at += PAGE_SIZE) {
+                buffer.put(at, zeros, 0, Math.min(PAGE_SIZE, buffer.capacity() - at));
+            }
+        }
+    }
+
+    private void put(int row, int column, int value) {
+        int chunk = row / rowsPerChunk;
+        int at = offset(row, column);
+        beforeWrite(chunk, at, at + 1);
+        chunks[chunk].put(at, (byte) value);
+    }
+
+    private int offset(int row, int column) {
+        return (row % rowsPerChunk) * columns + column;
+    }
+
+    // Saves the old contents of the pages in [from, to) of the chunk for the open
+    // snapshots that do not have them yet. Called with the lock held, before writing.
+    private void beforeWrite(int chunk, int from, int to) {
+        if (snapshots.isEmpty()) {
+            return;
+        }
+        boolean saved = false;
+        for (int page = from / PAGE_SIZE, last = (to - 1) / PAGE_SIZE; page <= last; page++) {
+            int id = chunk * pagesPerChunk + page;
+            if (pageSavedAt[id] < epoch) {
+                MappedByteBuffer buffer = chunks[chunk];
+                int start = page * PAGE_SIZE;
+                byte[] copy = new byte[Math.min(PAGE_SIZE, buffer.capacity() - start)];
+                buffer.get(start, copy);
+                // Every snapshot taken since the page was last saved still reads it live.
+                for (Snapshot snapshot : snapshots) {
+                    if (snapshot.epoch > pageSavedAt[id]) {
+                        PAGES.setRelease(snapshot.pages, id, copy);
+                    }
+                }
+                pageSavedAt[id] = epoch;
+                saved = true;
+            }
+        }
+        if (saved) {
+            // Snapshot readers must see a saved page before they can see the write.
+            VarHandle.storeStoreFence();
+        }
+    }
+
+    /**
+     * Every cell of the grid as of one moment. Pages the grid has not written since are
+     * read from the file; the rest from copies the grid saved before writing them. A
+     * snapshot can be read from any number of threads.
+     */
+    final class Snapshot implements AutoCloseable {
+        private final int epoch;
+        private final byte[][] pages;
+
+        private Snapshot(int epoch) {
+            this.epoch = epoch;
+            this.pages = new byte[pageSavedAt.length][];
+        }
+
+        public int getRowCount() {
+            return rows;
+        }
+
+        public int getColumnCount() {
+            return columns;
+        }
+
+        /**
+         * Returns the value of a cell, or -1 for an invalid position.
+         */
+        public int getCellValue(int rowNumber, int columnNumber) {
+            if (rowNumber < 0 || rowNumber >= rows || columnNumber < 0 || columnNumber >= columns) {
+                System.out.println("Error: Invalid cell position.");
+                return -1;
+            }
+            int chunk = rowNumber / rowsPerChunk;
+            int at = offset(rowNumber, columnNumber);
+            int id = chunk * pagesPerChunk + at / PAGE_SIZE;
+            byte[] page = (byte[]) PAGES.getAcquire(pages, id);
+            if (page == null) {
+                byte value = chunks[chunk].get(at);
+                // Re-check after the read: if the page was saved meanwhile, the value read
+                // may be newer than this snapshot.
+                VarHandle.loadLoadFence();
+                page = (byte[]) PAGES.getAcquire(pages, id);
+                if (page == null) {
+                    return value;
+                }
+            }
+            return page[at % PAGE_SIZE];
+        }
+
+        /**
+         * Returns a copy of the row, or null for an invalid row number.
+         */
+        public int[] getRow(int rowNumber) {
+            if (rowNumber < 0 || rowNumber >= rows) {
+                System.out.println("Error: Invalid row number.");
+                return null;
+            }
+            int[] row = new int[columns];
+            copyRow(rowNumber, row);
+            return row;
+        }
+
+        /**
+         * Returns a copy of the column, or null for an invalid column number.
+         */
+        public int[] getColumn(int columnNumber) {
+            if (columnNumber < 0 || columnNumber >= columns) {
+                System.out.println("Error: Invalid column number.");
+                return null;
+            }
+            int[] column = new int[rows];
+            for (int i = 0; i < rows; i++) {
+                column[i] = getCellValue(i, columnNumber);
+            }
+            return column;
+        }
+
+        /**
+         * Copies the row into {@code into}, which must hold at least
+         * {@link #getColumnCount()} values. Does nothing for an invalid row number.
+         */
+        public void copyRow(int rowNumber, int[] into) {
+            if (rowNumber < 0 || rowNumber >= rows) {
+                System.out.println("Error: Invalid row number.");
+                return;
+            }
+            int chunk = rowNumber / rowsPerChunk;
+            MappedByteBuffer buffer = chunks[chunk];
+            int start = offset(rowNumber, 0);
+            byte[] live = new byte[Math.min(columns, PAGE_SIZE)];
+            // One page at a time, each read like a single cell.
+            for (int done = 0; done < columns; ) {
+                int at = start + done;
+                int id = chunk * pagesPerChunk + at / PAGE_SIZE;
+                int length = Math.min(columns - done, PAGE_SIZE - at % PAGE_SIZE);
+                byte[] page = (byte[]) PAGES.getAcquire(pages, id);
+                if (page == null) {
+                    buffer.get(at, live, 0, length);
+                    VarHandle.loadLoadFence();
+                    page = (byte[]) PAGES.getAcquire(pages, id);
+                }
+                byte[] source = page == null ? live : page;
+                int from = page == null ? 0 : at % PAGE_SIZE;
+                for (int i = 0; i < length; i++) {
+                    into[done + i] = source[from + i];
+                }
+                done += length;
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (MappedGrid.this) {
+                snapshots.remove(this);
+            }
+        }
+    }
+}
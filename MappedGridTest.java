@@ -0,0 +1,257 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Test for {@link MappedGrid} snapshots and persistence. A writer thread sweeps the
+ * rows of the grid over and over, filling each row with the value of the current
+ * sweep, while reader threads hold several overlapping snapshots open. A snapshot must
+ * show the grid as of one moment, so each row holds one value, the rows hold at most
+ * two values split at the row the writer had reached, and reading a snapshot again
+ * later gives exactly what was read the first time. Then overlapping snapshots are
+ * checked step by step, and a grid is closed and opened again.
+ *
+ * Usage: java MappedGridTest [millis]
+ */
+public class MappedGridTest {
+    private static final int ROWS = 512;
+    private static final int COLUMNS = 512;
+    private static final int READERS = 3;
+    private static final int SNAPSHOTS_PER_READER = 3;
+
+    public static void main(String[] args) throws Exception {
+        long millis = args.length > 0 ? Long.parseLong(args[0]) : 3000;
+        Path dir = Files.createTempDirectory("mapped-grid");
+        try {
+            System.out.println("1. Snapshots read while the grid is written");
+            concurrentSnapshots(dir.resolve("concurrent.grid"), millis);
+
+            System.out.println("2. Overlapping snapshots");
+            overlappingSnapshots(dir.resolve("overlapping.grid"));
+
+            System.out.println("3. Close and open again");
+            reopen(dir.resolve("reopen.grid"));
+        } finally {
+            try (var paths = Files.walk(dir)) {
+                paths.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+            }
+        }
+        TestChecks.finish();
+    }
+
+    private static void concurrentSnapshots(Path path, long millis) throws Exception {
+        try (MappedGrid grid = MappedGrid.open(path, ROWS, COLUMNS)) {
+            AtomicBoolean stop = new AtomicBoolean();
+            AtomicLong sweeps = new AtomicLong();
+            AtomicLong snapshots = new AtomicLong();
+            AtomicLong inconsistent = new AtomicLong();
+            AtomicLong changed = new AtomicLong();
+
+            List<Thread> threads = new ArrayList<>(READERS + 1);
+            threads.add(new Thread(() -> {
+                int[] values = new int[COLUMNS];
+                for (int sweep = 1; !stop.get(); sweep++) {
+                    Arrays.fill(values, 1 + sweep % 9);
+                    for (int row = 0; row < ROWS; row++) {
+                        grid.insertAtRow(row, values);
+                    }
+                    sweeps.incrementAndGet();
+                }
+            }));
+            for (int t = 0; t < READERS; t++) {
+                Random random = new Random(t);
+                threads.add(new Thread(() -> {
+                    Deque<MappedGrid.Snapshot> open = new ArrayDeque<>();
+                    Deque<int[][]> firstReads = new ArrayDeque<>();
+                    while (!stop.get()) {
+                        MappedGrid.Snapshot snapshot = grid.snapshot();
+                        int[][] cells = readAll(snapshot);
+                        if (!consistent(cells)) {
+                            inconsistent.incrementAndGet();
+                        }
+                        open.addLast(snapshot);
+                        firstReads.addLast(cells);
+                        snapshots.incrementAndGet();
+
+                        // Read every open snapshot again, a few ways, while the writer moves on.
+                        var reads = firstReads.iterator();
+                        for (MappedGrid.Snapshot held : open) {
+                            if (!sameAsBefore(held, reads.next(), random)) {
+                                changed.incrementAndGet();
+                            }
+                        }
+                        if (open.size() == SNAPSHOTS_PER_READER) {
+                            MappedGrid.Snapshot oldest = open.removeFirst();
+                            if (!Arrays.deepEquals(readAll(oldest), firstReads.removeFirst())) {
+                                changed.incrementAndGet();
+                            }
+                            oldest.close();
+                        }
+                    }
+                    open.forEach(MappedGrid.Snapshot::close);
+                }));
+            }
+
+            threads.forEach(Thread::start);
+            Thread.sleep(millis);
+            stop.set(true);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            System.out.printf("   %d sweeps of %d rows, %d snapshots%n", sweeps.get(), ROWS, snapshots.get());
+            TestChecks.check("snapshots not as of one moment", 0, inconsistent.get());
+            TestChecks.check("snapshots that changed when read again", 0, changed.get());
+        }
+    }
+
+    private static void overlappingSnapshots(Path path) throws IOException {
+        try (MappedGrid grid = MappedGrid.open(path, ROWS, COLUMNS)) {
+            int[] ones = new int[COLUMNS];
+            Arrays.fill(ones, 1);
+            for (int row = 0; row < ROWS; row++) {
+                grid.insertAtRow(row, ones);
+            }
+            int[] fours = new int[ROWS];
+            Arrays.fill(fours, 4);
+
+            MappedGrid.Snapshot first = grid.snapshot();
+            grid.updateCell(0, 0, 2);
+            MappedGrid.Snapshot second = grid.snapshot();
+            MappedGrid.Snapshot third = grid.snapshot();
+            grid.updateCell(0, 0, 3);
+            grid.insertAtColumn(5, fours);
+            MappedGrid.Snapshot fourth = grid.snapshot();
+
+            TestChecks.check("first snapshot keeps the cell from before both writes", 1, first.getCellValue(0, 0));
+            TestChecks.check("second snapshot sees the first write only", 2, second.getCellValue(0, 0));
+            TestChecks.check("third snapshot, same moment as the second", 2, third.getCellValue(0, 0));
+            first.close();
+            third.close();
+
+            grid.clear();
+            TestChecks.check("grid cleared", 0, grid.getCellValue(0, 0));
+            TestChecks.check("second snapshot after a clear", 2, second.getCellValue(0, 0));
+            TestChecks.check("second snapshot keeps the column from before its write", 1,
+                    second.getColumn(5)[ROWS - 1]);
+            TestChecks.check("fourth snapshot keeps both writes", 3, fourth.getCellValue(0, 0));
+            TestChecks.check("fourth snapshot keeps the written column", 4, fourth.getColumn(5)[ROWS - 1]);
+            second.close();
+
+            grid.updateCell(ROWS - 1, COLUMNS - 1, 9);
+            TestChecks.check("fourth snapshot after the others closed", 1,
+                    fourth.getRow(ROWS - 1)[COLUMNS - 1]);
+            fourth.close();
+        }
+    }
+
+    private static void reopen(Path path) throws IOException {
+        // Sizes that do not divide the page size, so rows straddle pages.
+        int rows = 300;
+        int columns = 70;
+        try (MappedGrid grid = MappedGrid.open(path, rows, columns)) {
+            TestChecks.check("new grid is empty", grid.isEmpty());
+            int[] values = new int[columns];
+            for (int row = 0; row < rows; row++) {
+                for (int column = 0; column < columns; column++) {
+                    values[column] = pattern(row, column);
+                }
+                grid.insertAtRow(row, values);
+            }
+        }
+
+        try (MappedGrid grid = MappedGrid.open(path)) {
+            TestChecks.check("rows after opening again", rows, grid.getRowCount());
+            TestChecks.check("columns after opening again", columns, grid.getColumnCount());
+            int wrong = 0;
+            for (int row = 0; row < rows; row++) {
+                for (int column = 0; column < columns; column++) {
+                    if (grid.getCellValue(row, column) != pattern(row, column)) {
+                        wrong++;
+                    }
+                }
+            }
+            TestChecks.check("cells changed by closing and opening again", 0, wrong);
+        }
+
+        try (MappedGrid grid = MappedGrid.open(path, rows, columns)) {
+            TestChecks.check("opening with the stored size keeps the cells", pattern(7, 3), grid.getCellValue(7, 3));
+        }
+        try {
+            MappedGrid.open(path, columns, rows).close();
+            TestChecks.fail("opening with another size was allowed");
+        } catch (IOException e) {
+            TestChecks.check("opening with another size: " + e.getMessage(), true);
+        }
+
+        Path other = path.resolveSibling("not-a-grid");
+        Files.write(other, new byte[64]);
+        try {
+            MappedGrid.open(other).close();
+            TestChecks.fail("opening a file that is not a grid was allowed");
+        } catch (IOException e) {
+            TestChecks.check("opening a file that is not a grid: " + e.getMessage(), true);
+        }
+    }
+
+    private static int pattern(int row, int column) {
+        return (row * 7 + column) % 10;
+    }
+
+    private static int[][] readAll(MappedGrid.Snapshot snapshot) {
+        int[][] cells = new int[snapshot.getRowCount()][snapshot.getColumnCount()];
+        for (int row = 0; row < cells.length; row++) {
+            snapshot.copyRow(row, cells[row]);
+        }
+        return cells;
+    }
+
+    // Each row holds one value, and going down the rows the value changes at most
+    // once: at the row the writer had reached when the snapshot was taken.
+    private static boolean consistent(int[][] cells) {
+        int changes = 0;
+        for (int row = 0; row < cells.length; row++) {
+            for (int value : cells[row]) {
+                if (value != cells[row][0]) {
+                    return false;
+                }
+            }
+            if (row > 0 && cells[row][0] != cells[row - 1][0]) {
+                changes++;
+            }
+        }
+        return changes <= 1;
+    }
+
+    // Some random rows, cells and one column, each read again the way a reader would.
+    private static boolean sameAsBefore(MappedGrid.Snapshot snapshot, int[][] before, Random random) {
+        int[] row = new int[COLUMNS];
+        for (int i = 0; i < 8; i++) {
+            int rowNumber = random.nextInt(ROWS);
+            snapshot.copyRow(rowNumber, row);
+            if (!Arrays.equals(row, before[rowNumber])) {
+                return false;
+            }
+            int columnNumber = random.nextInt(COLUMNS);
+            if (snapshot.getCellValue(rowNumber, columnNumber) != before[rowNumber][columnNumber]) {
+                return false;
+            }
+        }
+        int columnNumber = random.nextInt(COLUMNS);
+        int[] column = snapshot.getColumn(columnNumber);
+        for (int i = 0; i < ROWS; i++) {
+            if (column[i] != before[i][columnNumber]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * Helpers for fixed-point money amounts held as a long number of cents.
+ */
+final class Money {
+    /**
+     * Returned by {@link #toCents(double)} when the amount is not a whole number of cents.
+     */
+    static final long NOT_CENTS = Long.MIN_VALUE;
+
+    private static final long MAX_CENTS = Long.MAX_VALUE / 100;
+    private static final double CENT_TOLERANCE = 1e-6;
+
+    private Money() {
+    }
+
+    /**
+     * Converts a dollar amount to cents without going through a String.
+     * Returns {@link #NOT_CENTS} for NaN, infinities, out-of-range values and
+     * amounts with more than two decimal places.
+     */
+    static long toCents(double amount) {
+        double scaled = amount * 100;
+        if (Double.isNaN(scaled) || Math.abs(scaled) > MAX_CENTS) {
+            return NOT_CENTS;
+        }
+
+        long cents = Math.round(scaled);
+        if (Math.abs(scaled - cents) > CENT_TOLERANCE) {
+            return NOT_CENTS;
+        }
+        return cents;
+    }
+
+    static double toDollars(long cents) {
+        return cents / 100.0;
+    }
+
+    /**
+     * Formats cents as dollars with exactly two decimals, e.g. 40334 as "403.34".
+     */
+    static String format(long cents) {
+        StringBuilder sb = new StringBuilder(24);
+        appendTo(sb, cents);
+        return sb.toString();
+    }
+
+    static void appendTo(StringBuilder sb, long cents) {
+        if (cents < 0) {
+            sb.append('-');
+            cents = -cents;
+        }
+        long fraction = cents % 100;
+        sb.append(cents / 100).append('.');
+        if (fraction < 10) {
+            sb.append('0');
+        }
+        sb.append(fraction);
+    }
+}
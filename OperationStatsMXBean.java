@@ -0,0 +1,25 @@
+import java.util.Map;
+
+/**
+ * JMX view of one instrumented bank operation. Counts are exact; latencies are in
+ * microseconds, taken from a sample of the calls, and cover everything recorded since
+ * metrics were enabled.
+ */
+public interface OperationStatsMXBean {
+    long getCount();
+
+    /**
+     * Number of calls per outcome, e.g. APPLIED or INSUFFICIENT_FUNDS.
+     */
+    Map<String, Long> getOutcomeCounts();
+
+    double getMeanMicros();
+
+    double getP50Micros();
+
+    double getP99Micros();
+
+    double getP999Micros();
+
+    double getMaxMicros();
+}
@@ -0,0 +1,122 @@
+import java.util.Arrays;
+
+/**
+ * Four bits per cell, sixteen cells to a long: an eighth of the memory of an int
+ * grid. Each row starts on a fresh long, so clearing a row is one fill and writing a
+ * row packs whole words; only column operations pay for shifting and masking.
+ */
+class PackedGrid extends AbstractGrid {
+    private static final int CELLS_PER_WORD = 16;
+    private static final long CELL_MASK = 0xF;
+
+    private final long[] words;
+    private final int wordsPerRow;
+
+    public PackedGrid(int rows, int columns) {
+        super(rows, columns);
+        wordsPerRow = (columns + CELLS_PER_WORD - 1) / CELLS_PER_WORD;
+        long size = (long) rows * wordsPerRow;
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Grid too large for a packed grid: " + (long) rows * columns + " cells");
+        }
+        words = new long[(int) size];
+    }
+
+    @Override
+    int get(int row, int column) {
+        return (int) (words[row * wordsPerRow + (column >>> 4)] >>> ((column & 15) << 2) & CELL_MASK);
+    }
+
+    @Override
+    void set(int row, int column, int value) {
+        int at = row * wordsPerRow + (column >>> 4);
+        int shift = (column & 15) << 2;
+        words[at] = words[at] & ~(CELL_MASK << shift) | (long) value << shift;
+    }
+
+    @Override
+    void writeRow(int row, int[] values) {
+        int base = row * wordsPerRow;
+        int full = values.length / CELLS_PER_WORD;
+        for (int w = 0; w < full; w++) {
+            words[base + w] = pack(values, w * CELLS_PER_WORD, CELLS_PER_WORD);
+        }
+        int rest = values.length - full * CELLS_PER_WORD;
+        if (rest > 0) {
+            // Keep the cells past the end of values.
+            long keep = -1L << (rest << 2);
+            words[base + full] = words[base + full] & keep | pack(values, full * CELLS_PER_WORD, rest);
+        }
+    }
+
+    @Override
+    void readRow(int row, int[] into) {
+        int base = row * wordsPerRow;
+        int full = columns / CELLS_PER_WORD;
+        for (int w = 0; w < full; w++) {
+            unpack(words[base + w], into, w * CELLS_PER_WORD, CELLS_PER_WORD);
+        }
+        int rest = columns - full * CELLS_PER_WORD;
+        if (rest > 0) {
+            unpack(words[base + full], into, full * CELLS_PER_WORD, rest);
+        }
+    }
+
+    @Override
+    void clearRow(int row) {
+        Arrays.fill(words, row * wordsPerRow, (row + 1) * wordsPerRow, 0);
+    }
+
+    @Override
+    void writeColumn(int column, int[] values) {
+        int shift = (column & 15) << 2;
+        long clear = ~(CELL_MASK << shift);
+        for (int i = 0, at = column >>> 4; i < values.length; i++, at += wordsPerRow) {
+            words[at] = words[at] & clear | (long) values[i] << shift;
+        }
+    }
+
+    @Override
+    void readColumn(int column, int[] into) {
+        for (int i = 0; i < rows; i++) {
+            into[i] = get(i, column);
+        }
+    }
+
+    @Override
+    void clearColumn(int column) {
+        long clear = ~(CELL_MASK << ((column & 15) << 2));
+        for (int at = column >>> 4; at < words.length; at += wordsPerRow) {
+            words[at] &= clear;
+        }
+    }
+
+    @Override
+    void clearCells() {
+        Arrays.fill(words, 0);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (long word : words) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long pack(int[] values, int from, int count) {
+        long word = 0;
+        for (int i = 0; i < count; i++) {
+            word |= (long) values[from + i] << (i << 2);
+        }
+        return word;
+    }
+
+    private static void unpack(long word, int[] into, int from, int count) {
+        for (int i = 0; i < count; i++) {
+            into[from + i] = (int) (word >>> (i << 2) & CELL_MASK);
+        }
+    }
+}
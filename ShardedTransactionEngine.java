@@ -0,0 +1,555 @@
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs deposits, withdrawals and transfers on single-writer shards instead of under
+ * account locks. Started by {@link BankManagement#startShardedEngine}; while it runs it
+ * owns every balance, and the bank's own transaction methods refuse to run.
+ *
+ * Accounts are partitioned into shards by account ID. Each shard is one thread that
+ * takes commands from a preallocated ring buffer in submission order and applies them
+ * to its accounts with plain reads and writes: no monitor is taken, and deposits,
+ * withdrawals and transfers within a shard need no coordination at all.
+ *
+ * A transfer between shards is a two-phase handoff. The source shard validates and
+ * debits the source account and passes a credit to the destination shard; until the
+ * destination applies it, the amount is counted by {@link #inFlightCents()}, so the
+ * sum of all balances plus the in-flight amount never changes. If the credit would
+ * take the destination over the balance limit, the amount goes back to the source
+ * instead. To make sure it always fits, a shard keeps the amounts its accounts have
+ * sent but not yet settled and counts them against the limit for anything paid in.
+ *
+ * Handoffs travel on a second ring per shard, which shards drain before taking new
+ * commands. A shard never blocks on a full handoff ring; it holds the handoff back and
+ * stops taking commands until it is delivered, so shards cannot deadlock each other.
+ *
+ * The returned futures complete on shard threads, with the account or exceptionally
+ * with the usual bank exceptions. Other threads' balance reads are not synchronized
+ * with the shards while the engine runs; {@link #shutdown} makes every change visible.
+ * The engine keeps no journal, so it only runs on banks without one.
+ */
+class ShardedTransactionEngine {
+    private static final int RING_SIZE = 1 << 13;
+    private static final int MAX_BATCH = 256;
+    private static final int IDLE_SPINS = 200;
+
+    // Client commands.
+    private static final byte DEPOSIT = 1;
+    private static final byte WITHDRAW = 2;
+    private static final byte TRANSFER = 3;
+    // Handoffs between shards.
+    private static final byte CREDIT = 4;
+    private static final byte SETTLE = 5;
+    private static final byte REFUND = 6;
+
+    private final BankManagement bank;
+    private final TransactionHistory history;
+    private final Shard[] shards;
+    private final LongAdder inFlight = new LongAdder();
+    // Client commands accepted and not yet fully settled, handoffs included.
+    private final AtomicLong outstanding = new AtomicLong();
+    private volatile boolean stopping;
+
+    ShardedTransactionEngine(BankManagement bank, int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be at least 1");
+        }
+        this.bank = bank;
+        this.history = bank.getHistory();
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i);
+        }
+        for (Shard shard : shards) {
+            shard.thread.start();
+        }
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public CompletableFuture<Account> submitDeposit(long accountId, long amountCents) {
+        CompletableFuture<Account> result = new CompletableFuture<>();
+        submit(DEPOSIT, accountId, 0, amountCents, result);
+        return result;
+    }
+
+    public CompletableFuture<Account> submitWithdrawal(long accountId, long amountCents) {
+        CompletableFuture<Account> result = new CompletableFuture<>();
+        submit(WITHDRAW, accountId, 0, amountCents, result);
+        return result;
+    }
+
+    public CompletableFuture<Void> submitTransfer(long fromAccountId, long toAccountId, long amountCents) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        submit(TRANSFER, fromAccountId, toAccountId, amountCents, result);
+        return result;
+    }
+
+    /**
+     * Money debited by cross-shard transfers and not yet credited or returned.
+     */
+    public long inFlightCents() {
+        return inFlight.sum();
+    }
+
+    /**
+     * Stops accepting work, waits for accepted transactions to settle and hands the
+     * balances back to the bank. Returns false if the shards did not finish in time,
+     * in which case the bank stays in sharded mode.
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        stopping = true;
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Shard shard : shards) {
+            LockSupport.unpark(shard.thread);
+        }
+        for (Shard shard : shards) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining > 0) {
+                TimeUnit.NANOSECONDS.timedJoin(shard.thread, remaining);
+            }
+            if (shard.thread.isAlive()) {
+                return false;
+            }
+        }
+        bank.shardedEngineStopped(this);
+        return true;
+    }
+
+    private void submit(byte type, long accountId, long otherAccountId, long amountCents,
+            CompletableFuture<?> result) {
+        outstanding.incrementAndGet();
+        if (stopping) {
+            outstanding.decrementAndGet();
+            throw new RejectedExecutionException("The sharded engine is shut down");
+        }
+        Shard shard = shardFor(accountId);
+        shard.commands.publish(type, accountId, otherAccountId, amountCents, result);
+        shard.wake();
+    }
+
+    private Shard shardFor(long accountId) {
+        long h = accountId * 0x9E3779B97F4A7C15L;
+        return shards[(int) (((h >>> 32) * shards.length) >>> 32)];
+    }
+
+    private static Exception rejection(TransactionResult result, String operation, long accountId,
+            long balanceCents) {
+        String message = result.message(operation, accountId, balanceCents);
+        switch (result) {
+            case ACCOUNT_NOT_FOUND:
+                return new AccountNotFoundException(message);
+            case NEGATIVE_AMOUNT:
+            case DEPOSIT_OUT_OF_RANGE:
+                return new InvalidAmountException(message);
+            case INSUFFICIENT_FUNDS:
+                return new InsufficientFundsException(message);
+            case BALANCE_TOO_LOW:
+            case BALANCE_TOO_HIGH:
+                return new BalanceLimitException(message);
+            default:
+                return new IllegalArgumentException(message);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void complete(CompletableFuture<?> result, Object value) {
+        ((CompletableFuture<Object>) result).complete(value);
+    }
+
+    /**
+     * One preallocated slot of a ring. Fields are written by the publisher before the
+     * slot's sequence is published and read by the owning shard after it.
+     */
+    private static final class Command {
+        byte type;
+        long accountId;
+        long otherAccountId;
+        long amountCents;
+        CompletableFuture<?> result;
+    }
+
+    /**
+     * Multi-producer, single-consumer ring of commands. Producers claim a sequence,
+     * fill that slot and publish the sequence; the consumer takes slots in sequence
+     * order and frees each one once it has read it.
+     */
+    private static final class Ring {
+        private final Command[] slots = new Command[RING_SIZE];
+        private final AtomicLongArray published = new AtomicLongArray(RING_SIZE);
+        private final AtomicLong claimed = new AtomicLong(-1);
+        private final AtomicLong freed = new AtomicLong(RING_SIZE - 1);
+        private long next;
+
+        Ring() {
+            for (int i = 0; i < RING_SIZE; i++) {
+                slots[i] = new Command();
+                published.set(i, -1);
+            }
+        }
+
+        // Waits for a free slot; used by client threads.
+        void publish(byte type, long accountId, long otherAccountId, long amountCents, CompletableFuture<?> result) {
+            long sequence = claimed.incrementAndGet();
+            for (int idle = 0; sequence > freed.get(); idle++) {
+                if (idle < IDLE_SPINS) {
+                    Thread.onSpinWait();
+                } else if (idle < 2 * IDLE_SPINS) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(50_000);
+                }
+            }
+            fill(sequence, type, accountId, otherAccountId, amountCents, result);
+        }
+
+        // Never waits; used by shard threads, which must not block on each other.
+        boolean tryPublish(byte type, long accountId, long otherAccountId, long amountCents,
+                CompletableFuture<?> result) {
+            long sequence;
+            do {
+                sequence = claimed.get() + 1;
+                if (sequence > freed.get()) {
+                    return false;
+                }
+            } while (!claimed.compareAndSet(sequence - 1, sequence));
+            fill(sequence, type, accountId, otherAccountId, amountCents, result);
+            return true;
+        }
+
+        private void fill(long sequence, byte type, long accountId, long otherAccountId, long amountCents,
+                CompletableFuture<?> result) {
+            Command command = slots[(int) sequence & (RING_SIZE - 1)];
+            command.type = type;
+            command.accountId = accountId;
+            command.otherAccountId = otherAccountId;
+            command.amountCents = amountCents;
+            command.result = result;
+            published.set((int) sequence & (RING_SIZE - 1), sequence);
+        }
+
+        // The next published command, or null. Call release() once it has been read.
+        Command peek() {
+            int slot = (int) next & (RING_SIZE - 1);
+            return published.get(slot) == next ? slots[slot] : null;
+        }
+
+        void release(Command command) {
+            command.result = null;
+            next++;
+            freed.lazySet(next + RING_SIZE - 1);
+        }
+
+        boolean isEmpty() {
+            return published.get((int) next & (RING_SIZE - 1)) != next;
+        }
+    }
+
+    /**
+     * A handoff that did not fit in its target's ring yet.
+     */
+    private static final class Handoff {
+        final Shard target;
+        final byte type;
+        final long accountId;
+        final long otherAccountId;
+        final long amountCents;
+        final CompletableFuture<?> result;
+
+        Handoff(Shard target, byte type, long accountId, long otherAccountId, long amountCents,
+                CompletableFuture<?> result) {
+            this.target = target;
+            this.type = type;
+            this.accountId = accountId;
+            this.otherAccountId = otherAccountId;
+            this.amountCents = amountCents;
+            this.result = result;
+        }
+    }
+
+    private final class Shard implements Runnable {
+        final Thread thread;
+        final Ring commands = new Ring();
+        final Ring handoffs = new Ring();
+        // Held back while the target's handoff ring was full; only this shard uses it.
+        private final ArrayDeque<Handoff> backlog = new ArrayDeque<>();
+        // Amounts each account has sent to other shards and not yet settled.
+        private final LongHashIndex unsettled = new LongHashIndex();
+        private volatile boolean sleeping;
+
+        Shard(int index) {
+            thread = new Thread(this, "account-shard-" + index);
+            thread.setDaemon(true);
+        }
+
+        void wake() {
+            if (sleeping) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public void run() {
+            int idle = 0;
+            while (true) {
+                boolean worked = drain(handoffs, MAX_BATCH);
+                if (!backlog.isEmpty()) {
+                    worked |= flushBacklog();
+                }
+                if (backlog.isEmpty()) {
+                    worked |= drain(commands, MAX_BATCH);
+                }
+
+                if (worked) {
+                    idle = 0;
+                } else if (stopping && outstanding.get() == 0) {
+                    return;
+                } else if (++idle < IDLE_SPINS) {
+                    Thread.onSpinWait();
+                } else {
+                    sleeping = true;
+                    if (commands.isEmpty() && handoffs.isEmpty() && backlog.isEmpty() && !stopping) {
+                        LockSupport.park(this);
+                    } else if (backlog.isEmpty() && !stopping) {
+                        Thread.yield();
+                    } else {
+                        LockSupport.parkNanos(this, 50_000);
+                    }
+                    sleeping = false;
+                    idle = 0;
+                }
+            }
+        }
+
+        private boolean drain(Ring ring, int max) {
+            int count = 0;
+            Command command;
+            while (count < max && (command = ring.peek()) != null) {
+                byte type = command.type;
+                long accountId = command.accountId;
+                long otherAccountId = command.otherAccountId;
+                long amountCents = command.amountCents;
+                CompletableFuture<?> result = command.result;
+                ring.release(command);
+                try {
+                    apply(type, accountId, otherAccountId, amountCents, result);
+                } catch (RuntimeException e) {
+                    // A bug, not a rejection; the command is abandoned.
+                    result.completeExceptionally(e);
+                    outstanding.decrementAndGet();
+                }
+                count++;
+            }
+            return count > 0;
+        }
+
+        private void apply(byte type, long accountId, long otherAccountId, long amountCents,
+                CompletableFuture<?> result) {
+            switch (type) {
+                case DEPOSIT:
+                    deposit(accountId, amountCents, result);
+                    break;
+                case WITHDRAW:
+                    withdraw(accountId, amountCents, result);
+                    break;
+                case TRANSFER:
+                    transfer(accountId, otherAccountId, amountCents, result);
+                    break;
+                case CREDIT:
+                    credit(accountId, otherAccountId, amountCents, result);
+                    break;
+                case SETTLE:
+                    // Recorded once the transfer is certain, so a refunded transfer leaves no entry.
+                    history.record(accountId, TransactionHistory.TRANSFER_OUT, amountCents, otherAccountId,
+                            System.currentTimeMillis());
+                    addUnsettled(accountId, -amountCents);
+                    outstanding.decrementAndGet();
+                    break;
+                case REFUND:
+                    refund(accountId, otherAccountId, amountCents, result);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown command " + type);
+            }
+        }
+
+        private void deposit(long accountId, long amountCents, CompletableFuture<?> result) {
+            Account account = bank.getAccount(accountId);
+            TransactionResult outcome = account == null
+                    ? TransactionResult.ACCOUNT_NOT_FOUND : Account.checkAmount(amountCents);
+            if (outcome.isApplied()) {
+                outcome = Account.checkDepositRange(amountCents);
+            }
+            if (outcome.isApplied()) {
+                outcome = payIn(account, amountCents);
+            }
+            if (outcome.isApplied()) {
+                history.record(accountId, TransactionHistory.DEPOSIT, amountCents, TransactionHistory.NO_ACCOUNT,
+                        System.currentTimeMillis());
+            }
+            finish(outcome, "Deposit", accountId, account, result);
+        }
+
+        private void withdraw(long accountId, long amountCents, CompletableFuture<?> result) {
+            Account account = bank.getAccount(accountId);
+            TransactionResult outcome = account == null
+                    ? TransactionResult.ACCOUNT_NOT_FOUND : Account.checkAmount(amountCents);
+            if (outcome.isApplied()) {
+                outcome = payOut(account, amountCents);
+            }
+            if (outcome.isApplied()) {
+                history.record(accountId, TransactionHistory.WITHDRAWAL, amountCents,
+                        TransactionHistory.NO_ACCOUNT, System.currentTimeMillis());
+            }
+            finish(outcome, "Withdrawal", accountId, account, result);
+        }
+
+        private void transfer(long fromAccountId, long toAccountId, long amountCents, CompletableFuture<?> result) {
+            Account from = bank.getAccount(fromAccountId);
+            Account to = bank.getAccount(toAccountId);
+            TransactionResult outcome = TransactionResult.APPLIED;
+            long missingId = fromAccountId;
+            if (from == null || to == null) {
+                outcome = TransactionResult.ACCOUNT_NOT_FOUND;
+                missingId = from == null ? fromAccountId : toAccountId;
+            } else if (fromAccountId == toAccountId) {
+                outcome = TransactionResult.SAME_ACCOUNT;
+            } else {
+                outcome = Account.checkAmount(amountCents);
+            }
+            if (!outcome.isApplied()) {
+                finish(outcome, "Transfer", missingId, from, result);
+                return;
+            }
+
+            Shard target = shardFor(toAccountId);
+            if (target == this) {
+                outcome = Account.checkBalanceLimit(to.readBalanceCents() + amountCents + unsettled(toAccountId));
+                if (outcome.isApplied()) {
+                    outcome = payOut(from, amountCents);
+                }
+                if (outcome.isApplied()) {
+                    to.writeBalanceCents(to.readBalanceCents() + amountCents);
+                    long now = System.currentTimeMillis();
+                    history.record(fromAccountId, TransactionHistory.TRANSFER_OUT, amountCents, toAccountId, now);
+                    history.record(toAccountId, TransactionHistory.TRANSFER_IN, amountCents, fromAccountId, now);
+                }
+                finish(outcome, "Transfer", outcome.isBalanceLimit() ? toAccountId : fromAccountId,
+                        outcome.isBalanceLimit() ? to : from, result);
+                return;
+            }
+
+            outcome = payOut(from, amountCents);
+            if (!outcome.isApplied()) {
+                finish(outcome, "Transfer", fromAccountId, from, result);
+                return;
+            }
+            addUnsettled(fromAccountId, amountCents);
+            inFlight.add(amountCents);
+            handOff(target, CREDIT, fromAccountId, toAccountId, amountCents, result);
+        }
+
+        // Second phase of a cross-shard transfer, on the destination's shard.
+        private void credit(long fromAccountId, long toAccountId, long amountCents, CompletableFuture<?> result) {
+            Account to = bank.getAccount(toAccountId);
+            TransactionResult outcome = payIn(to, amountCents);
+            Shard source = shardFor(fromAccountId);
+            if (outcome.isApplied()) {
+                inFlight.add(-amountCents);
+                history.record(toAccountId, TransactionHistory.TRANSFER_IN, amountCents, fromAccountId,
+                        System.currentTimeMillis());
+                complete(result, null);
+                handOff(source, SETTLE, fromAccountId, toAccountId, amountCents, null);
+            } else {
+                handOff(source, REFUND, fromAccountId, toAccountId, amountCents, result);
+            }
+        }
+
+        // The destination could not take the money; the source gets it back.
+        private void refund(long fromAccountId, long toAccountId, long amountCents, CompletableFuture<?> result) {
+            Account from = bank.getAccount(fromAccountId);
+            from.writeBalanceCents(from.readBalanceCents() + amountCents);
+            addUnsettled(fromAccountId, -amountCents);
+            inFlight.add(-amountCents);
+            result.completeExceptionally(rejection(TransactionResult.BALANCE_TOO_HIGH, "Transfer", toAccountId, 0));
+            outstanding.decrementAndGet();
+        }
+
+        // Anything paid in leaves room for the account's unsettled transfers to come back.
+        private TransactionResult payIn(Account account, long amountCents) {
+            long newBalance = account.readBalanceCents() + amountCents;
+            TransactionResult outcome = Account.checkBalanceLimit(newBalance + unsettled(account.getAccountId()));
+            if (outcome.isApplied()) {
+                account.writeBalanceCents(newBalance);
+            }
+            return outcome;
+        }
+
+        private TransactionResult payOut(Account account, long amountCents) {
+            long balance = account.readBalanceCents();
+            if (amountCents > balance) {
+                return TransactionResult.INSUFFICIENT_FUNDS;
+            }
+            TransactionResult outcome = Account.checkBalanceLimit(balance - amountCents);
+            if (outcome.isApplied()) {
+                account.writeBalanceCents(balance - amountCents);
+            }
+            return outcome;
+        }
+
+        private void finish(TransactionResult outcome, String operation, long accountId, Account account,
+                CompletableFuture<?> result) {
+            if (outcome.isApplied()) {
+                complete(result, operation.equals("Transfer") ? null : account);
+            } else {
+                long balance = account == null ? 0 : account.readBalanceCents();
+                result.completeExceptionally(rejection(outcome, operation, accountId, balance));
+            }
+            outstanding.decrementAndGet();
+        }
+
+        private long unsettled(long accountId) {
+            int amount = unsettled.get(accountId);
+            return amount == LongHashIndex.MISSING ? 0 : amount;
+        }
+
+        // Balances never exceed the limit, so an account's unsettled total fits in an int.
+        private void addUnsettled(long accountId, long deltaCents) {
+            long amount = unsettled(accountId) + deltaCents;
+            unsettled.remove(accountId);
+            if (amount != 0) {
+                unsettled.putIfAbsent(accountId, (int) amount);
+            }
+        }
+
+        private void handOff(Shard target, byte type, long accountId, long otherAccountId, long amountCents,
+                CompletableFuture<?> result) {
+            if (backlog.isEmpty() && target.handoffs.tryPublish(type, accountId, otherAccountId, amountCents, result)) {
+                target.wake();
+            } else {
+                backlog.add(new Handoff(target, type, accountId, otherAccountId, amountCents, result));
+            }
+        }
+
+        private boolean flushBacklog() {
+            boolean flushed = false;
+            Handoff handoff;
+            while ((handoff = backlog.peek()) != null
+                    && handoff.target.handoffs.tryPublish(handoff.type, handoff.accountId,
+                            handoff.otherAccountId, handoff.amountCents, handoff.result)) {
+                backlog.poll();
+                handoff.target.wake();
+                flushed = true;
+            }
+            return flushed;
+        }
+    }
+}
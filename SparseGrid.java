@@ -0,0 +1,251 @@
+import java.util.Arrays;
+
+/**
+ * Grid for huge boards that are almost all zeros. Only non-zero cells are stored, so
+ * memory and the cost of clearing follow the number of non-zero cells rather than
+ * the size of the board. Both follow the most cells that have been non-zero at once
+ * since the last clear: freed entries are reused but not given back until then, and
+ * clearing the grid runs over the entry pool rather than walking every row's list,
+ * which would take finding the non-empty rows first.
+ *
+ * Each non-zero cell is an entry in a pool of parallel primitive arrays. Entries are
+ * linked into a doubly linked list for their row and another for their column, and a
+ * {@link LongHashIndex} maps each cell's position to its entry. A cell lookup is one
+ * hash probe; clearing a row or column walks just that row's or column's entries;
+ * setting a cell to 0 unlinks its entry in constant time and frees it for reuse.
+ *
+ * The only per-row and per-column state is the head of each list, so an empty grid
+ * costs eight bytes per row and column.
+ */
+class SparseGrid extends AbstractGrid {
+    // Entry 0 is never used, so 0 can mean "no entry" and fresh arrays start out empty.
+    private static final int NONE = 0;
+    private static final int MIN_ENTRIES = 16;
+
+    private final int[] rowHeads;
+    private final int[] columnHeads;
+    private final LongHashIndex index = new LongHashIndex();
+
+    // The entry pool. Free entries have value 0 and are chained through nextInRow.
+    private int[] entryRows = new int[MIN_ENTRIES];
+    private int[] entryColumns = new int[MIN_ENTRIES];
+    private byte[] values = new byte[MIN_ENTRIES];
+    private int[] nextInRow = new int[MIN_ENTRIES];
+    private int[] previousInRow = new int[MIN_ENTRIES];
+    private int[] nextInColumn = new int[MIN_ENTRIES];
+    private int[] previousInColumn = new int[MIN_ENTRIES];
+    private int used = 1;
+    private int free = NONE;
+    private int nonZeroCount;
+
+    public SparseGrid(int rows, int columns) {
+        super(rows, columns);
+        rowHeads = new int[rows];
+        columnHeads = new int[columns];
+    }
+
+    /**
+     * The number of cells holding a value other than 0.
+     */
+    public int getNonZeroCount() {
+        return nonZeroCount;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return nonZeroCount == 0;
+    }
+
+    /**
+     * Takes time in proportion to the most cells that have been non-zero at once since
+     * the last clear, which can be more than are non-zero now, but not to the size of
+     * the board.
+     */
+    @Override
+    void clearCells() {
+        for (int entry = 1; entry < used; entry++) {
+            if (values[entry] != 0) {
+                rowHeads[entryRows[entry]] = NONE;
+                columnHeads[entryColumns[entry]] = NONE;
+            }
+        }
+        index.clear();
+        if (used > MIN_ENTRIES) {
+            allocate(MIN_ENTRIES);
+        } else {
+            Arrays.fill(values, (byte) 0);
+        }
+        used = 1;
+        free = NONE;
+        nonZeroCount = 0;
+    }
+
+    @Override
+    int get(int row, int column) {
+        int entry = index.get(key(row, column));
+        return entry == LongHashIndex.MISSING ? 0 : values[entry];
+    }
+
+    @Override
+    void set(int row, int column, int value) {
+        long key = key(row, column);
+        int entry = index.get(key);
+        if (entry != LongHashIndex.MISSING) {
+            if (value == 0) {
+                index.remove(key);
+                unlinkFromRow(entry);
+                unlinkFromColumn(entry);
+                release(entry);
+            } else {
+                values[entry] = (byte) value;
+            }
+        } else if (value != 0) {
+            entry = allocateEntry();
+            entryRows[entry] = row;
+            entryColumns[entry] = column;
+            values[entry] = (byte) value;
+            linkIntoRow(entry, row);
+            linkIntoColumn(entry, column);
+            index.putIfAbsent(key, entry);
+            nonZeroCount++;
+        }
+    }
+
+    @Override
+    void writeRow(int row, int[] rowValues) {
+        for (int i = 0; i < rowValues.length; i++) {
+            set(row, i, rowValues[i]);
+        }
+    }
+
+    @Override
+    void readRow(int row, int[] into) {
+        Arrays.fill(into, 0);
+        for (int entry = rowHeads[row]; entry != NONE; entry = nextInRow[entry]) {
+            into[entryColumns[entry]] = values[entry];
+        }
+    }
+
+    @Override
+    void readColumn(int column, int[] into) {
+        Arrays.fill(into, 0);
+        for (int entry = columnHeads[column]; entry != NONE; entry = nextInColumn[entry]) {
+            into[entryRows[entry]] = values[entry];
+        }
+    }
+
+    @Override
+    void clearRow(int row) {
+        int entry = rowHeads[row];
+        rowHeads[row] = NONE;
+        while (entry != NONE) {
+            int next = nextInRow[entry];
+            index.remove(key(row, entryColumns[entry]));
+            unlinkFromColumn(entry);
+            release(entry);
+            entry = next;
+        }
+    }
+
+    @Override
+    void clearColumn(int column) {
+        int entry = columnHeads[column];
+        columnHeads[column] = NONE;
+        while (entry != NONE) {
+            int next = nextInColumn[entry];
+            index.remove(key(entryRows[entry], column));
+            unlinkFromRow(entry);
+            release(entry);
+            entry = next;
+        }
+    }
+
+    private long key(int row, int column) {
+        return (long) row * columns + column;
+    }
+
+    private void linkIntoRow(int entry, int row) {
+        int head = rowHeads[row];
+        nextInRow[entry] = head;
+        previousInRow[entry] = NONE;
+        if (head != NONE) {
+            previousInRow[head] = entry;
+        }
+        rowHeads[row] = entry;
+    }
+
+    private void linkIntoColumn(int entry, int column) {
+        int head = columnHeads[column];
+        nextInColumn[entry] = head;
+        previousInColumn[entry] = NONE;
+        if (head != NONE) {
+            previousInColumn[head] = entry;
+        }
+        columnHeads[column] = entry;
+    }
+
+    private void unlinkFromRow(int entry) {
+        int next = nextInRow[entry];
+        int previous = previousInRow[entry];
+        if (previous == NONE) {
+            rowHeads[entryRows[entry]] = next;
+        } else {
+            nextInRow[previous] = next;
+        }
+        if (next != NONE) {
+            previousInRow[next] = previous;
+        }
+    }
+
+    private void unlinkFromColumn(int entry) {
+        int next = nextInColumn[entry];
+        int previous = previousInColumn[entry];
+        if (previous == NONE) {
+            columnHeads[entryColumns[entry]] = next;
+        } else {
+            nextInColumn[previous] = next;
+        }
+        if (next != NONE) {
+            previousInColumn[next] = previous;
+        }
+    }
+
+    private int allocateEntry() {
+        if (free != NONE) {
+            int entry = free;
+            free = nextInRow[entry];
+            return entry;
+        }
+        if (used == values.length) {
+            grow(values.length << 1);
+        }
+        return used++;
+    }
+
+    private void release(int entry) {
+        values[entry] = 0;
+        nextInRow[entry] = free;
+        free = entry;
+        nonZeroCount--;
+    }
+
+    private void grow(int length) {
+        entryRows = Arrays.copyOf(entryRows, length);
+        entryColumns = Arrays.copyOf(entryColumns, length);
+        values = Arrays.copyOf(values, length);
+        nextInRow = Arrays.copyOf(nextInRow, length);
+        previousInRow = Arrays.copyOf(previousInRow, length);
+        nextInColumn = Arrays.copyOf(nextInColumn, length);
+        previousInColumn = Arrays.copyOf(previousInColumn, length);
+    }
+
+    private void allocate(int length) {
+        entryRows = new int[length];
+        entryColumns = new int[length];
+        values = new byte[length];
+        nextInRow = new int[length];
+        previousInRow = new int[length];
+        nextInColumn = new int[length];
+        previousInColumn = new int[length];
+    }
+}
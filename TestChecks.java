@@ -0,0 +1,40 @@
+/**
+ * Pass/fail bookkeeping shared by the test harnesses. Each check prints one OK or
+ * FAILED line; {@link #finish()} ends the run with a summary, exiting with status 1 if
+ * any check failed.
+ */
+final class TestChecks {
+    private static int failures;
+
+    private TestChecks() {
+    }
+
+    static void check(String what, long expected, long actual) {
+        if (expected == actual) {
+            System.out.println("   OK: " + what + " (" + actual + ")");
+        } else {
+            fail(what + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    static void check(String what, boolean passed) {
+        if (passed) {
+            System.out.println("   OK: " + what);
+        } else {
+            fail(what);
+        }
+    }
+
+    static void fail(String what) {
+        System.out.println("   FAILED: " + what);
+        failures++;
+    }
+
+    static void finish() {
+        if (failures > 0) {
+            System.out.println(failures + " check(s) FAILED");
+            System.exit(1);
+        }
+        System.out.println("All checks passed.");
+    }
+}
@@ -0,0 +1,220 @@
+/**
+ * Remembers the results of recently submitted transactions by client transaction ID,
+ * so a retried transaction returns its original result instead of being applied again.
+ *
+ * A transaction claims its ID before it runs and completes it with the result
+ * afterwards. A duplicate that arrives while the original is still running waits for
+ * it. Each ID is stored with a hash of the transaction's parameters, and an ID that
+ * comes back with different parameters is rejected with
+ * {@link TransactionResult#TRANSACTION_ID_REUSED} rather than given another
+ * transaction's result. IDs are forgotten oldest first once {@code capacity} are held,
+ * or once they are older than the time to live, whichever comes first. An ID whose
+ * transaction is still running is never forgotten, since its duplicates would then
+ * run again: when it comes up for eviction it moves to the back of the queue instead,
+ * and a segment grows past its share of the capacity only if every ID in it is still
+ * running. Capacity should comfortably exceed the number of transactions in flight
+ * at once.
+ *
+ * IDs are spread over lock-striped segments. Each segment keeps its IDs in arrival
+ * order in a ring of primitive arrays, indexed by a {@link LongHashIndex} from ID to
+ * ring slot, so eviction pops from the head of the ring and nothing is boxed. Rings
+ * start small and grow to the segment's share of the capacity. The cache lives in
+ * memory only and starts empty after a restart.
+ */
+class TransactionDedupCache {
+    private static final int SEGMENTS = 64;
+    private static final int MIN_SEGMENT_CAPACITY = 16;
+
+    private static final byte PENDING = -1;
+    private static final byte RELEASED = -2;
+    private static final TransactionResult[] RESULTS = TransactionResult.values();
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final long ttlNanos;
+
+    /**
+     * @param capacity   how many IDs to remember at most
+     * @param ttlMillis  how long to remember each ID
+     */
+    public TransactionDedupCache(int capacity, long ttlMillis) {
+        if (capacity < 1 || ttlMillis < 1) {
+            throw new IllegalArgumentException("Capacity and time to live must be positive");
+        }
+        int segmentCapacity = Math.max(MIN_SEGMENT_CAPACITY, (capacity + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+        this.ttlNanos = ttlMillis * 1_000_000;
+    }
+
+    /**
+     * Claims the ID for a new transaction whose parameters hash to {@code paramsHash}.
+     * Returns null if the ID was not seen recently; the caller must then run the
+     * transaction and {@link #complete} or {@link #release} the ID. Otherwise returns
+     * the original transaction's result, waiting for it if the original is still
+     * running, or {@link TransactionResult#TRANSACTION_ID_REUSED} if the original had
+     * different parameters.
+     */
+    public TransactionResult claim(long transactionId, long paramsHash) {
+        Segment segment = segmentFor(transactionId);
+        long now = System.nanoTime();
+        synchronized (segment) {
+            segment.expire(now - ttlNanos);
+            int slot = segment.index.get(transactionId);
+            if (slot != LongHashIndex.MISSING && segment.params[slot] != paramsHash) {
+                return TransactionResult.TRANSACTION_ID_REUSED;
+            }
+            while (slot != LongHashIndex.MISSING && segment.results[slot] == PENDING) {
+                try {
+                    segment.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for transaction " + transactionId);
+                }
+                slot = segment.index.get(transactionId);
+            }
+            if (slot != LongHashIndex.MISSING) {
+                // Released while waiting and claimed again by other parameters.
+                return segment.params[slot] == paramsHash ? RESULTS[segment.results[slot]]
+                        : TransactionResult.TRANSACTION_ID_REUSED;
+            }
+            segment.add(transactionId, paramsHash, now);
+            return null;
+        }
+    }
+
+    /**
+     * Records the result of a claimed transaction and wakes its waiting duplicates.
+     */
+    public void complete(long transactionId, TransactionResult result) {
+        Segment segment = segmentFor(transactionId);
+        synchronized (segment) {
+            int slot = segment.index.get(transactionId);
+            if (slot != LongHashIndex.MISSING) {
+                segment.results[slot] = (byte) result.ordinal();
+                segment.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Forgets a claimed ID whose transaction failed without a result, so a retry runs
+     * it again.
+     */
+    public void release(long transactionId) {
+        Segment segment = segmentFor(transactionId);
+        synchronized (segment) {
+            int slot = segment.index.remove(transactionId);
+            if (slot != LongHashIndex.MISSING) {
+                segment.results[slot] = RELEASED;
+                segment.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * The number of IDs currently remembered.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.index.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment segmentFor(long transactionId) {
+        long h = transactionId * 0x9E3779B97F4A7C15L;
+        return segments[(int) (h >>> 58)];
+    }
+
+    /**
+     * One stripe of the cache. The ring holds IDs in arrival order from {@code head};
+     * released IDs stay in the ring until they reach the head. A pending head is
+     * moved to the tail rather than evicted.
+     */
+    private static class Segment {
+        final int capacity;
+        final LongHashIndex index = new LongHashIndex();
+        long[] ids = new long[MIN_SEGMENT_CAPACITY];
+        long[] times = new long[MIN_SEGMENT_CAPACITY];
+        long[] params = new long[MIN_SEGMENT_CAPACITY];
+        byte[] results = new byte[MIN_SEGMENT_CAPACITY];
+        int head;
+        int count;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+        }
+
+        void add(long transactionId, long paramsHash, long now) {
+            for (int n = count; n > 0 && count >= capacity; n--) {
+                evictOrRequeueHead();
+            }
+            if (count == ids.length) {
+                grow();
+            }
+            int slot = (head + count) % ids.length;
+            ids[slot] = transactionId;
+            times[slot] = now;
+            params[slot] = paramsHash;
+            results[slot] = PENDING;
+            index.putIfAbsent(transactionId, slot);
+            count++;
+        }
+
+        // Drops IDs that arrived before the cutoff, other than those still pending.
+        void expire(long cutoff) {
+            for (int n = count; n > 0 && times[head] - cutoff < 0; n--) {
+                evictOrRequeueHead();
+            }
+        }
+
+        private void evictOrRequeueHead() {
+            long transactionId = ids[head];
+            byte result = results[head];
+            if (result != RELEASED) {
+                index.remove(transactionId);
+            }
+            int from = head;
+            head = (head + 1) % ids.length;
+            count--;
+            if (result == PENDING) {
+                int slot = (head + count) % ids.length;
+                ids[slot] = transactionId;
+                times[slot] = times[from];
+                params[slot] = params[from];
+                results[slot] = PENDING;
+                index.putIfAbsent(transactionId, slot);
+                count++;
+            }
+        }
+
+        // Unrolls the ring into larger arrays and re-points the index at the new slots.
+        private void grow() {
+            int length = ids.length < capacity ? Math.min(capacity, ids.length << 1) : ids.length << 1;
+            long[] newIds = new long[length];
+            long[] newTimes = new long[length];
+            long[] newParams = new long[length];
+            byte[] newResults = new byte[length];
+            for (int i = 0; i < count; i++) {
+                int slot = (head + i) % ids.length;
+                newIds[i] = ids[slot];
+                newTimes[i] = times[slot];
+                newParams[i] = params[slot];
+                newResults[i] = results[slot];
+                if (results[slot] != RELEASED) {
+                    index.remove(ids[slot]);
+                    index.putIfAbsent(ids[slot], i);
+                }
+            }
+            ids = newIds;
+            times = newTimes;
+            params = newParams;
+            results = newResults;
+            head = 0;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs deposits, withdrawals and transfers against a {@link BankManagement} on a pool
+ * of worker threads. Amounts are in cents. Account-level locking keeps each operation
+ * atomic; the returned futures complete, once the operation is durable, with the
+ * account, or exceptionally with the usual bank exceptions.
+ */
+class TransactionEngine {
+    private final BankManagement bank;
+    private final ExecutorService workers;
+
+    public TransactionEngine(BankManagement bank, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1");
+        }
+        this.bank = bank;
+        this.workers = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "transaction-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public CompletableFuture<Account> submitDeposit(long accountId, long amountCents) {
+        CompletableFuture<Account> result = new CompletableFuture<>();
+        workers.execute(() -> {
+            try {
+                Account account = bank.depositCents(accountId, amountCents);
+                bank.awaitDurable();
+                result.complete(account);
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    public CompletableFuture<Account> submitWithdrawal(long accountId, long amountCents) {
+        CompletableFuture<Account> result = new CompletableFuture<>();
+        workers.execute(() -> {
+            try {
+                Account account = bank.withdrawCents(accountId, amountCents);
+                bank.awaitDurable();
+                result.complete(account);
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    public CompletableFuture<Void> submitTransfer(long fromAccountId, long toAccountId, long amountCents) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        workers.execute(() -> {
+            try {
+                bank.transferCents(fromAccountId, toAccountId, amountCents);
+                bank.awaitDurable();
+                result.complete(null);
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Stops accepting work and waits for queued transactions to finish.
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        workers.shutdown();
+        return workers.awaitTermination(timeout, unit);
+    }
+}
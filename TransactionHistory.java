@@ -0,0 +1,378 @@
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * Per-account history of deposits, withdrawals and transfers, for statements.
+ *
+ * Each account's entries are kept oldest first in a ring over one long[], three longs
+ * per entry (time and type, amount, counterparty), so an entry costs 24 bytes and
+ * nothing is boxed. Entries older than the retention window are dropped as new ones
+ * arrive, and a ring that has emptied out shrinks again. Times never go backwards
+ * within an account, so a statement for a time range is two binary searches and one
+ * copy.
+ *
+ * Accounts are spread over lock-striped segments that map account IDs to their rings
+ * with a {@link LongHashIndex}. Besides its own ring, every record expires the next
+ * {@value #SWEEP_PER_RECORD} rings of its segment in turn, so an account that has gone
+ * quiet still loses its old entries while others in its segment are active.
+ *
+ * The history lives in memory only and starts empty after a restart; the journal has
+ * no times, so it cannot be rebuilt from there. Recording costs several times what the
+ * balance change itself does, so a bank starts with {@link #DISABLED}, which records
+ * nothing, and keeps a history only when asked to.
+ */
+class TransactionHistory {
+    static final byte DEPOSIT = 0;
+    static final byte WITHDRAWAL = 1;
+    static final byte TRANSFER_IN = 2;
+    static final byte TRANSFER_OUT = 3;
+
+    // Counterparty of entries that have none.
+    static final long NO_ACCOUNT = 0;
+
+    private static final String[] TYPE_NAMES = {"Deposit", "Withdrawal", "Transfer in", "Transfer out"};
+    private static final int SEGMENTS = 64;
+    private static final int MIN_ENTRIES = 8;
+    private static final int ENTRY_LONGS = 3;
+    private static final int TYPE_BITS = 2;
+    private static final long TYPE_MASK = (1 << TYPE_BITS) - 1;
+    private static final int SWEEP_PER_RECORD = 2;
+
+    /**
+     * A history that records nothing; every statement is empty.
+     */
+    static final TransactionHistory DISABLED = new TransactionHistory(1) {
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+
+        @Override
+        public void record(long accountId, byte type, long amountCents, long counterpartyId, long timeMillis) {
+        }
+    };
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private volatile long retentionMillis;
+
+    public TransactionHistory(long retentionMillis) {
+        setRetentionMillis(retentionMillis);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    public boolean isEnabled() {
+        return true;
+    }
+
+    public long getRetentionMillis() {
+        return retentionMillis;
+    }
+
+    /**
+     * Changes how long entries are kept. A shorter window applies to existing entries
+     * as their segment records or their account reads its history.
+     */
+    public void setRetentionMillis(long retentionMillis) {
+        if (retentionMillis < 1) {
+            throw new IllegalArgumentException("Retention must be positive");
+        }
+        this.retentionMillis = retentionMillis;
+    }
+
+    public void record(long accountId, byte type, long amountCents, long counterpartyId, long timeMillis) {
+        segmentFor(accountId).record(accountId, type, amountCents, counterpartyId, timeMillis,
+                timeMillis - retentionMillis);
+    }
+
+    /**
+     * The account's entries with times in [fromMillis, toMillis), oldest first, as of
+     * {@code nowMillis}: entries outside the retention window are left out.
+     */
+    public Statement statement(long accountId, long fromMillis, long toMillis, long nowMillis) {
+        return segmentFor(accountId).statement(accountId, fromMillis, toMillis, nowMillis - retentionMillis);
+    }
+
+    /**
+     * The number of entries held for the account, expired ones included until they are dropped.
+     */
+    public int entryCount(long accountId) {
+        return segmentFor(accountId).entryCount(accountId);
+    }
+
+    static String typeName(byte type) {
+        return TYPE_NAMES[type];
+    }
+
+    private Segment segmentFor(long accountId) {
+        long h = accountId * 0x9E3779B97F4A7C15L;
+        return segments[(int) (h >>> 58)];
+    }
+
+    /**
+     * One stripe of accounts, each with its log: a ring of entries in one long[]. The
+     * log's first longs hold its state, so appending reads the array's first cache
+     * line and writes the slot; nothing else about the account is touched. An entry is
+     * three longs: the time shifted left past the type, the amount and the counterparty.
+     */
+    private static class Segment {
+        // Layout of a log: state, then the ring.
+        private static final int HEAD = 0;
+        private static final int COUNT = 1;
+        private static final int OLDEST = 2;
+        private static final int NEWEST = 3;
+        private static final int RING = 4;
+
+        final LongHashIndex index = new LongHashIndex();
+        long[][] logs = new long[16][];
+        int sweepCursor;
+
+        synchronized void record(long accountId, byte type, long amountCents, long counterpartyId, long timeMillis,
+                long cutoffMillis) {
+            int position = index.get(accountId);
+            if (position == LongHashIndex.MISSING) {
+                position = index.size();
+                if (position == logs.length) {
+                    logs = Arrays.copyOf(logs, position << 1);
+                }
+                logs[position] = new long[RING + MIN_ENTRIES * ENTRY_LONGS];
+                index.putIfAbsent(accountId, position);
+            }
+
+            long[] log = expire(position, cutoffMillis);
+            int count = (int) log[COUNT];
+            if (count == capacity(log)) {
+                log = resize(position, capacity(log) << 1);
+            }
+            if (count == 0) {
+                log[OLDEST] = timeMillis;
+            } else {
+                // Keep times sorted even if the clock steps back.
+                timeMillis = Math.max(timeMillis, log[NEWEST]);
+            }
+            int at = offset(log, count);
+            log[at] = timeMillis << TYPE_BITS | type;
+            log[at + 1] = amountCents;
+            log[at + 2] = counterpartyId;
+            log[NEWEST] = timeMillis;
+            log[COUNT] = count + 1;
+            sweep(position, cutoffMillis);
+        }
+
+        // Expires the next few logs after the cursor, other than the one just recorded.
+        private void sweep(int recorded, long cutoffMillis) {
+            int size = index.size();
+            for (int i = 0; i < SWEEP_PER_RECORD; i++) {
+                if (++sweepCursor >= size) {
+                    sweepCursor = 0;
+                }
+                if (sweepCursor != recorded) {
+                    expire(sweepCursor, cutoffMillis);
+                }
+            }
+        }
+
+        synchronized Statement statement(long accountId, long fromMillis, long toMillis, long cutoffMillis) {
+            int position = index.get(accountId);
+            if (position == LongHashIndex.MISSING) {
+                return new Statement(accountId, fromMillis, toMillis, new long[0], new byte[0], new long[0],
+                        new long[0]);
+            }
+            long[] log = expire(position, cutoffMillis);
+            int from = firstAtOrAfter(log, fromMillis);
+            int n = Math.max(from, firstAtOrAfter(log, toMillis)) - from;
+            long[] times = new long[n];
+            byte[] types = new byte[n];
+            long[] amounts = new long[n];
+            long[] counterparties = new long[n];
+            for (int i = 0, at = offset(log, from); i < n; i++, at += ENTRY_LONGS) {
+                if (at == log.length) {
+                    at = RING;
+                }
+                times[i] = log[at] >> TYPE_BITS;
+                types[i] = (byte) (log[at] & TYPE_MASK);
+                amounts[i] = log[at + 1];
+                counterparties[i] = log[at + 2];
+            }
+            return new Statement(accountId, fromMillis, toMillis, times, types, amounts, counterparties);
+        }
+
+        synchronized int entryCount(long accountId) {
+            int position = index.get(accountId);
+            return position == LongHashIndex.MISSING ? 0 : (int) logs[position][COUNT];
+        }
+
+        // Drops entries before the cutoff and gives back space once the ring is mostly empty.
+        private long[] expire(int position, long cutoffMillis) {
+            long[] log = logs[position];
+            int count = (int) log[COUNT];
+            if (count == 0 || log[OLDEST] >= cutoffMillis) {
+                return log;
+            }
+            int dropped = 0;
+            while (dropped < count && timeAt(log, dropped) < cutoffMillis) {
+                dropped++;
+            }
+            log[HEAD] = (log[HEAD] + dropped) % capacity(log);
+            log[COUNT] = count -= dropped;
+            if (count > 0) {
+                log[OLDEST] = timeAt(log, 0);
+            }
+            if (capacity(log) > MIN_ENTRIES && count < capacity(log) >>> 2) {
+                log = resize(position, Math.max(MIN_ENTRIES, capacity(log) >>> 1));
+            }
+            return log;
+        }
+
+        private long[] resize(int position, int newCapacity) {
+            long[] log = logs[position];
+            long[] resized = new long[RING + newCapacity * ENTRY_LONGS];
+            int count = (int) log[COUNT];
+            int head = (int) log[HEAD];
+            int first = Math.min(count, capacity(log) - head);
+            System.arraycopy(log, RING + head * ENTRY_LONGS, resized, RING, first * ENTRY_LONGS);
+            System.arraycopy(log, RING, resized, RING + first * ENTRY_LONGS, (count - first) * ENTRY_LONGS);
+            resized[COUNT] = count;
+            resized[OLDEST] = log[OLDEST];
+            resized[NEWEST] = log[NEWEST];
+            logs[position] = resized;
+            return resized;
+        }
+
+        // Index, counted from the oldest entry, of the first entry at or after the time.
+        private static int firstAtOrAfter(long[] log, long timeMillis) {
+            int low = 0;
+            int high = (int) log[COUNT];
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (timeAt(log, middle) < timeMillis) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        private static long timeAt(long[] log, int index) {
+            return log[offset(log, index)] >> TYPE_BITS;
+        }
+
+        private static int capacity(long[] log) {
+            return (log.length - RING) / ENTRY_LONGS;
+        }
+
+        // Array offset of the entry at the given index, counted from the oldest.
+        private static int offset(long[] log, int index) {
+            int slot = (int) log[HEAD] + index;
+            int capacity = capacity(log);
+            return RING + (slot < capacity ? slot : slot - capacity) * ENTRY_LONGS;
+        }
+    }
+
+    /**
+     * An account's entries over a time range, oldest first.
+     */
+    static final class Statement {
+        private final long accountId;
+        private final long fromMillis;
+        private final long toMillis;
+        private final long[] times;
+        private final byte[] types;
+        private final long[] amounts;
+        private final long[] counterparties;
+
+        Statement(long accountId, long fromMillis, long toMillis, long[] times, byte[] types, long[] amounts,
+                long[] counterparties) {
+            this.accountId = accountId;
+            this.fromMillis = fromMillis;
+            this.toMillis = toMillis;
+            this.times = times;
+            this.types = types;
+            this.amounts = amounts;
+            this.counterparties = counterparties;
+        }
+
+        public long getAccountId() {
+            return accountId;
+        }
+
+        public long getFromMillis() {
+            return fromMillis;
+        }
+
+        public long getToMillis() {
+            return toMillis;
+        }
+
+        public int size() {
+            return times.length;
+        }
+
+        public long getTimeMillis(int i) {
+            return times[i];
+        }
+
+        public byte getType(int i) {
+            return types[i];
+        }
+
+        public long getAmountCents(int i) {
+            return amounts[i];
+        }
+
+        /**
+         * The other account of a transfer, or {@link #NO_ACCOUNT}.
+         */
+        public long getCounterpartyId(int i) {
+            return counterparties[i];
+        }
+
+        /**
+         * Money paid in over the range: deposits and incoming transfers.
+         */
+        public long getCreditsCents() {
+            long total = 0;
+            for (int i = 0; i < types.length; i++) {
+                if (types[i] == DEPOSIT || types[i] == TRANSFER_IN) {
+                    total += amounts[i];
+                }
+            }
+            return total;
+        }
+
+        /**
+         * Money paid out over the range: withdrawals and outgoing transfers.
+         */
+        public long getDebitsCents() {
+            long total = 0;
+            for (int i = 0; i < types.length; i++) {
+                if (types[i] == WITHDRAWAL || types[i] == TRANSFER_OUT) {
+                    total += amounts[i];
+                }
+            }
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(64 + times.length * 64);
+            sb.append("Statement for account ").append(accountId).append(", ")
+                    .append(Instant.ofEpochMilli(fromMillis)).append(" to ").append(Instant.ofEpochMilli(toMillis));
+            for (int i = 0; i < times.length; i++) {
+                sb.append("\n  ").append(Instant.ofEpochMilli(times[i])).append("  ")
+                        .append(typeName(types[i])).append("  $");
+                Money.appendTo(sb, amounts[i]);
+                if (counterparties[i] != NO_ACCOUNT) {
+                    sb.append(types[i] == TRANSFER_IN ? " from " : " to ").append(counterparties[i]);
+                }
+            }
+            sb.append("\nCredits: $");
+            Money.appendTo(sb, getCreditsCents());
+            sb.append(", debits: $");
+            Money.appendTo(sb, getDebitsCents());
+            return sb.toString();
+        }
+    }
+}
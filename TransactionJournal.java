@@ -0,0 +1,412 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary write-ahead journal of account operations.
+ *
+ * Each record is laid out as
+ * <pre>
+ * int length | long sequence | byte type | payload | int crc32
+ * </pre>
+ * where length counts the sequence, type and payload bytes and the CRC covers the same
+ * bytes. Appends only copy into an in-memory buffer; a background thread writes and
+ * fsyncs whatever has accumulated once {@code groupCommitSize} records are pending or
+ * {@code maxDelayMillis} has passed, so many transactions share one fsync. Callers that
+ * need durability wait with {@link #awaitDurable(long)}.
+ *
+ * On open, existing records are handed to a {@link Replayer}. A torn or corrupt tail
+ * left by a crash ends the replay and is truncated away.
+ */
+class TransactionJournal implements Closeable {
+    static final byte CREATE = 1;
+    static final byte DEPOSIT = 2;
+    static final byte WITHDRAW = 3;
+    static final byte TRANSFER = 4;
+
+    private static final int HEADER_SIZE = 4;
+    private static final int TRAILER_SIZE = 4;
+    private static final int MAX_RECORD_SIZE = 1 << 16;
+    // A create record is the sequence, type, ID, balance and name length, then the name.
+    private static final int MAX_HOLDER_BYTES = MAX_RECORD_SIZE - (8 + 1) - (8 + 8 + 2);
+    private static final int INITIAL_BUFFER_SIZE = 1 << 16;
+    private static final int RECOVERY_BUFFER_SIZE = 1 << 20;
+
+    /**
+     * Receives the records of an existing journal, in the order they were written.
+     */
+    interface Replayer {
+        void created(long sequence, long accountId, String accountHolder, long balanceCents) throws Exception;
+
+        void deposited(long sequence, long accountId, long amountCents) throws Exception;
+
+        void withdrew(long sequence, long accountId, long amountCents) throws Exception;
+
+        void transferred(long sequence, long fromAccountId, long toAccountId, long amountCents) throws Exception;
+    }
+
+    private final FileChannel channel;
+    private final int groupCommitSize;
+    private final long maxDelayMillis;
+    private final Thread flusher;
+    private final CRC32 crc = new CRC32();
+
+    private ByteBuffer pending = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private ByteBuffer writing = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private int pendingRecords;
+    private int recordStart;
+    private long firstPendingMillis;
+    private boolean syncRequested;
+    private long nextSequence;
+    private long durableSequence;
+    private long position;
+    private long appendedPosition;
+    private long recoveredRecords;
+    private IOException failure;
+    private boolean closed;
+    private boolean stopped;
+
+    private TransactionJournal(FileChannel channel, int groupCommitSize, long maxDelayMillis) {
+        this.channel = channel;
+        this.groupCommitSize = groupCommitSize;
+        this.maxDelayMillis = maxDelayMillis;
+        this.flusher = new Thread(this::flushLoop, "journal-flusher");
+        this.flusher.setDaemon(true);
+    }
+
+    /**
+     * Opens or creates the journal, replays its records into {@code replayer} and starts
+     * the group-commit thread.
+     */
+    public static TransactionJournal open(Path path, int groupCommitSize, long maxDelayMillis, Replayer replayer)
+            throws IOException {
+        return open(path, groupCommitSize, maxDelayMillis, 0, 0, replayer);
+    }
+
+    /**
+     * Opens the journal and replays only the records from {@code fromPosition} on, where
+     * {@code fromSequence} is the sequence number of the record just before that position.
+     * Used after loading a snapshot taken at that point.
+     */
+    public static TransactionJournal open(Path path, int groupCommitSize, long maxDelayMillis, long fromPosition,
+            long fromSequence, Replayer replayer) throws IOException {
+        if (groupCommitSize < 1) {
+            throw new IllegalArgumentException("Group commit size must be at least 1");
+        }
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        TransactionJournal journal = new TransactionJournal(channel, groupCommitSize, maxDelayMillis);
+        try {
+            journal.recover(fromPosition, fromSequence, replayer);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        journal.flusher.start();
+        return journal;
+    }
+
+    /**
+     * Number of records replayed when the journal was opened.
+     */
+    public long getRecoveredRecords() {
+        return recoveredRecords;
+    }
+
+    public synchronized long getLastSequence() {
+        return nextSequence - 1;
+    }
+
+    /**
+     * Byte offset just past the last appended record, including records not yet on disk.
+     */
+    public synchronized long getPosition() {
+        return appendedPosition;
+    }
+
+    /**
+     * Throws IllegalArgumentException if a holder name is too long to journal, so a
+     * caller can reject it before changing anything.
+     */
+    static void checkHolder(String accountHolder) {
+        if (accountHolder.length() > MAX_HOLDER_BYTES / 3
+                && accountHolder.getBytes(StandardCharsets.UTF_8).length > MAX_HOLDER_BYTES) {
+            throw new IllegalArgumentException("Account holder name too long");
+        }
+    }
+
+    public long appendCreate(long accountId, String accountHolder, long balanceCents) throws IOException {
+        byte[] holder = accountHolder.getBytes(StandardCharsets.UTF_8);
+        synchronized (this) {
+            ByteBuffer buffer = beginRecord(CREATE, 8 + 8 + 2 + holder.length);
+            buffer.putLong(accountId).putLong(balanceCents).putShort((short) holder.length).put(holder);
+            return endRecord();
+        }
+    }
+
+    public synchronized long appendDeposit(long accountId, long amountCents) throws IOException {
+        beginRecord(DEPOSIT, 16).putLong(accountId).putLong(amountCents);
+        return endRecord();
+    }
+
+    public synchronized long appendWithdrawal(long accountId, long amountCents) throws IOException {
+        beginRecord(WITHDRAW, 16).putLong(accountId).putLong(amountCents);
+        return endRecord();
+    }
+
+    public synchronized long appendTransfer(long fromAccountId, long toAccountId, long amountCents)
+            throws IOException {
+        beginRecord(TRANSFER, 24).putLong(fromAccountId).putLong(toAccountId).putLong(amountCents);
+        return endRecord();
+    }
+
+    /**
+     * Blocks until the record with the given sequence number has been fsynced.
+     */
+    public synchronized void awaitDurable(long sequence) throws IOException {
+        try {
+            while (durableSequence < sequence) {
+                if (failure != null) {
+                    throw failure;
+                }
+                if (stopped) {
+                    throw new IOException("Journal is closed");
+                }
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the journal");
+        }
+    }
+
+    /**
+     * Flushes every record appended so far and waits for it to reach the disk.
+     */
+    public void sync() throws IOException {
+        long sequence;
+        synchronized (this) {
+            sequence = nextSequence - 1;
+            syncRequested = true;
+            notifyAll();
+        }
+        awaitDurable(sequence);
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        synchronized (this) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private ByteBuffer beginRecord(byte type, int payloadSize) throws IOException {
+        checkUsable();
+        int length = 8 + 1 + payloadSize;
+        if (length > MAX_RECORD_SIZE) {
+            throw new IllegalArgumentException("Journal record too large");
+        }
+        int needed = HEADER_SIZE + length + TRAILER_SIZE;
+        if (pending.remaining() < needed) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() << 1, pending.position() + needed));
+            pending.flip();
+            larger.put(pending);
+            pending = larger;
+        }
+        recordStart = pending.position();
+        return pending.putInt(length).putLong(nextSequence).put(type);
+    }
+
+    private long endRecord() {
+        crc.reset();
+        crc.update(pending.array(), recordStart + HEADER_SIZE, pending.position() - recordStart - HEADER_SIZE);
+        pending.putInt((int) crc.getValue());
+        appendedPosition += pending.position() - recordStart;
+
+        if (++pendingRecords == 1) {
+            firstPendingMillis = System.currentTimeMillis();
+            notifyAll();
+        } else if (pendingRecords == groupCommitSize) {
+            notifyAll();
+        }
+        return nextSequence++;
+    }
+
+    private void checkUsable() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (closed) {
+            throw new IOException("Journal is closed");
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            long sequence;
+            synchronized (this) {
+                try {
+                    while (!closed && !syncRequested && pendingRecords < groupCommitSize) {
+                        if (pendingRecords == 0) {
+                            wait();
+                            continue;
+                        }
+                        long remaining = firstPendingMillis + maxDelayMillis - System.currentTimeMillis();
+                        if (remaining <= 0) {
+                            break;
+                        }
+                        wait(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    closed = true;
+                }
+                syncRequested = false;
+                if (pendingRecords == 0) {
+                    if (closed) {
+                        stopped = true;
+                        notifyAll();
+                        return;
+                    }
+                    continue;
+                }
+
+                ByteBuffer swap = writing;
+                writing = pending;
+                pending = swap;
+                pending.clear();
+                pendingRecords = 0;
+                sequence = nextSequence - 1;
+            }
+
+            try {
+                writing.flip();
+                while (writing.hasRemaining()) {
+                    channel.write(writing, position + writing.position());
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    stopped = true;
+                    notifyAll();
+                }
+                return;
+            }
+
+            synchronized (this) {
+                position += writing.limit();
+                durableSequence = sequence;
+                notifyAll();
+            }
+        }
+    }
+
+    private void recover(long fromPosition, long fromSequence, Replayer replayer) throws IOException {
+        long size = channel.size();
+        if (fromPosition > size) {
+            throw new IOException("Journal ends at byte " + size + " but replay starts at " + fromPosition);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(RECOVERY_BUFFER_SIZE);
+        buffer.limit(0);
+        long offset = fromPosition;
+        long readPosition = fromPosition;
+        long lastSequence = fromSequence;
+
+        while (true) {
+            if (buffer.remaining() < HEADER_SIZE + TRAILER_SIZE
+                    || buffer.remaining() < HEADER_SIZE + buffer.getInt(buffer.position()) + TRAILER_SIZE) {
+                buffer.compact();
+                int read = channel.read(buffer, readPosition);
+                buffer.flip();
+                if (read <= 0) {
+                    break;
+                }
+                readPosition += read;
+                continue;
+            }
+
+            int start = buffer.position();
+            int length = buffer.getInt(start);
+            if (length < 9 || length > MAX_RECORD_SIZE) {
+                break;
+            }
+            crc.reset();
+            crc.update(buffer.array(), start + HEADER_SIZE, length);
+            if ((int) crc.getValue() != buffer.getInt(start + HEADER_SIZE + length)) {
+                break;
+            }
+
+            ByteBuffer record = buffer.duplicate();
+            record.position(start + HEADER_SIZE).limit(start + HEADER_SIZE + length);
+            lastSequence = record.getLong();
+            try {
+                replay(record.get(), lastSequence, record, replayer);
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("Journal record " + lastSequence + " could not be replayed: "
+                        + e.getMessage(), e);
+            }
+
+            recoveredRecords++;
+            buffer.position(start + HEADER_SIZE + length + TRAILER_SIZE);
+            offset += HEADER_SIZE + length + TRAILER_SIZE;
+        }
+
+        if (offset < size) {
+            channel.truncate(offset);
+            channel.force(false);
+        }
+        position = offset;
+        appendedPosition = offset;
+        nextSequence = lastSequence + 1;
+        durableSequence = lastSequence;
+    }
+
+    private static void replay(byte type, long sequence, ByteBuffer record, Replayer replayer) throws Exception {
+        switch (type) {
+            case CREATE: {
+                long accountId = record.getLong();
+                long balanceCents = record.getLong();
+                byte[] holder = new byte[record.getShort() & 0xFFFF];
+                record.get(holder);
+                replayer.created(sequence, accountId, new String(holder, StandardCharsets.UTF_8), balanceCents);
+                break;
+            }
+            case DEPOSIT:
+                replayer.deposited(sequence, record.getLong(), record.getLong());
+                break;
+            case WITHDRAW:
+                replayer.withdrew(sequence, record.getLong(), record.getLong());
+                break;
+            case TRANSFER:
+                replayer.transferred(sequence, record.getLong(), record.getLong(), record.getLong());
+                break;
+            default:
+                throw new IOException("Unknown journal record type " + type + " at sequence " + sequence);
+        }
+    }
+}
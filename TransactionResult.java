@@ -0,0 +1,58 @@
+/**
+ * Outcome of a transaction on the non-throwing path. Rejections are ordinary return
+ * values; a message is only built when {@link #message} is called.
+ */
+enum TransactionResult {
+    APPLIED,
+    NEGATIVE_AMOUNT,
+    DEPOSIT_OUT_OF_RANGE,
+    INSUFFICIENT_FUNDS,
+    BALANCE_TOO_LOW,
+    BALANCE_TOO_HIGH,
+    ACCOUNT_NOT_FOUND,
+    SAME_ACCOUNT,
+    // A client transaction ID already used for a different transaction.
+    TRANSACTION_ID_REUSED;
+
+    public boolean isApplied() {
+        return this == APPLIED;
+    }
+
+    boolean isBalanceLimit() {
+        return this == BALANCE_TOO_LOW || this == BALANCE_TOO_HIGH;
+    }
+
+    /**
+     * Builds the same message the throwing API would carry.
+     *
+     * @param operation        "Deposit", "Withdrawal" or "Transfer"
+     * @param accountId        the account the result refers to
+     * @param availableCents   the account's balance when the transaction was rejected
+     */
+    public String message(String operation, long accountId, long availableCents) {
+        switch (this) {
+            case APPLIED:
+                return operation + " successful!";
+            case NEGATIVE_AMOUNT:
+                return operation + " amount cannot be negative";
+            case DEPOSIT_OUT_OF_RANGE:
+                return "Deposit amount must be between $" + Money.format(Account.MIN_DEPOSIT_CENTS)
+                        + " and $" + Money.format(Account.MAX_DEPOSIT_CENTS);
+            case INSUFFICIENT_FUNDS:
+                return ("Transfer".equals(operation) ? "Insufficient funds for transfer" : "Insufficient funds")
+                        + ". Available balance: $" + Money.format(availableCents);
+            case BALANCE_TOO_LOW:
+                return "Balance cannot be less than $" + Money.format(Account.MIN_BALANCE_CENTS);
+            case BALANCE_TOO_HIGH:
+                return "Balance cannot exceed $" + Money.format(Account.MAX_BALANCE_CENTS);
+            case ACCOUNT_NOT_FOUND:
+                return "Account with ID " + accountId + " not found.";
+            case SAME_ACCOUNT:
+                return "Cannot transfer to the same account.";
+            case TRANSACTION_ID_REUSED:
+                return "Transaction ID was already used for a different transaction.";
+            default:
+                throw new AssertionError(this);
+        }
+    }
+}